@@ -53,15 +53,31 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -96,6 +112,8 @@ import au.csiro.marine.echo.data.es60.ES60File;
 import au.csiro.marine.echo.data.es60.ES60NMEA;
 import au.csiro.marine.echo.data.es60.ES60RAW;
 import au.csiro.marine.echo.data.es60.ES60Record;
+import au.csiro.marine.echo.data.es60.ES60Scanner;
+import au.csiro.marine.echo.data.es60.ES60Writer;
 
 /**
     ES60Adjust is a program to 
@@ -159,6 +177,19 @@ public class ES60Adjust extends JComponent {
 	 **/
 	protected static ClassLoader cl__ = ES60Adjust.class.getClassLoader();
 
+	/**
+	 *  Size of the buffer used to read a stream of datagrams.
+	 *  Output is batched by ES60Writer.
+	 **/
+	public static final int STREAM_BUFFER = 1 << 20;
+
+	/**
+	 *  The first ping is detected once any channel has this many times the
+	 *  skip plus search pings the detector needs, even if another channel
+	 *  has fewer, so a channel that stops does not hold up detect().
+	 **/
+	public static final int HOLD_PINGS = 2;
+
 	/* ---------- Protected Static Members ---------- */
 
 	/**
@@ -167,6 +198,49 @@ public class ES60Adjust extends JComponent {
 	 **/
 	protected static Progress gui__;
 
+	/**
+	 *  Correct files by copying them and patching the power samples in place?
+	 *  @see #patch(Job)
+	 **/
+	protected static boolean patch__ = false;
+
+	/**
+	 *  Size of the chunks files are split into when processing in parallel,
+	 *  0 to correct each file on one thread.
+	 *  @see #split(Job, long)
+	 **/
+	protected static long chunkBytes__ = 0;
+
+	/**
+	 *  Write a patch file next to each file rather than a corrected copy?
+	 *  @see ES60PatchFile
+	 **/
+	protected static boolean adj__ = false;
+
+	/**
+	 *  Check the coarse search of the detector against every candidate when detecting the first ping?
+	 *  @see ES60Detector#setValidate(boolean)
+	 **/
+	protected static boolean validate__ = false;
+
+	/**
+	 *  Journal of the files finished in the current batch, null if none.
+	 *  @see ES60Journal
+	 **/
+	protected static ES60Journal journal__;
+
+	/**
+	 *  Where update() writes status messages when there is no GUI.
+	 *  This is System.err when corrected data is written to System.out.
+	 **/
+	protected static PrintStream status__ = System.out;
+
+	/**
+	 *  Bytes of datagrams detect(InputStream, OutputStream) holds in memory
+	 *  before detecting the first ping, a quarter of the maximum heap.
+	 **/
+	protected static long holdBytes__ = Runtime.getRuntime().maxMemory() / 4;
+
 	/* ---------- Protected Members ---------- */
 
 	/**
@@ -562,7 +636,7 @@ public class ES60Adjust extends JComponent {
 				for (int i = files.length; i > 0; ) {
 					a = new Analyse(files[--i], a);
 					if (!getStats)
-						a.haveStats_ = true;
+						a.scan_.setHaveStats(true);
 				}
 				a.analyse();
 
@@ -906,12 +980,12 @@ public class ES60Adjust extends JComponent {
 		 *  Must not be greater than the number of bits in channelmask
 		 *  which is an int, ie 64 bits.
 		 **/
-		static final int MAX_CHANNELS = 64;
+		static final int MAX_CHANNELS = ES60Detector.MAX_CHANNELS;
 
 		/**
 		 *  List of supported algorithms for weighting deviations.
 		 **/
-		final String[] ALGORITHMS = {"Linear", "Square", "Square root", "Log"};
+		final String[] ALGORITHMS = ES60Detector.ALGORITHMS;
 
 		/* ----- Analyse Members ----- */
 
@@ -926,25 +1000,14 @@ public class ES60Adjust extends JComponent {
 		Analyse next_;
 
 		/**
-		 *  Configuration datagram.
-		 **/
-		/*# should be ES60CON when written */
-		ES60Record con_;
-
-		/**
-		 *  Statistics for this file have been collected.
-		 **/
-		boolean haveStats_;
-
-		/**
-		 *  Highest channel number in this file.
+		 *  Reads the file and collects its statistics, see ES60Scan.
 		 **/
-		int maxChannel_ = MAX_CHANNELS;
+		ES60Scan scan_;
 
 		/**
-		 *  Number of pings per channel
+		 *  Statistics of this file have been displayed.
 		 **/
-		int[] pings_;
+		boolean shown_;
 
 		/**
 		 *  Output deviations to System.out?
@@ -982,8 +1045,8 @@ public class ES60Adjust extends JComponent {
 					file.toString(), false);
 
 			file_ = file;
-			haveStats_ = false;
 			next_ = next;
+			scan_ = new ES60Scan(file, next == null ? null : next.scan_);
 
 			JComponent titlePane = new  JPanel(new GridLayout(1,1));
 			titlePane.add(new JLabel(file_.getFile().getPath()));
@@ -1186,173 +1249,53 @@ public class ES60Adjust extends JComponent {
 		 */
 		public void analyse(int first, int last, int avgWindow, int window, int search, int skip, int algorithm) {
 
-			/* input sanity checks */
-			if (first < 0)
-				first = 0;
-			if (last < first)
-				last = first;
-			window |= 1;
-			if (search < window)
-				search = WAVE;
+			/* input sanity checks are done by the detector */
+			ES60Detector detector = new ES60Detector(first, last, avgWindow, window, search, skip, algorithm);
+			first = detector.getFirst();
+			last = detector.getLast();
+			window = detector.getWindow();
+			search = detector.getSearch();
 
 			int n = last - first + 1;
 
-			/* variables holding ping statistics */
-			int[] pings = new int[maxChannel_];
-			int[] nullpings = new int[maxChannel_];
-			int[] integrate = new int[maxChannel_];
-
-			int[][] pingVal = new int[maxChannel_][];
-
-			/* get ping values and statistics */
-			int maxPings = getStats(first, last, search, skip, pings, nullpings, integrate, pingVal);
-
-			/*  mean value of the fire pulse for each channel */
-			double[] mean = new double[maxChannel_];
-
-			/*  Sum of deviation from mean fire pulse adjusted for triangle wave starting at ping i. */
-			double[][] deviation = new double[maxChannel_][WAVE];
-
-			/* sum of deviation from mean with no triangle wave */
-			double[] zeroDev = new double[maxChannel_];
-
-			/* calculate mean for each channel */
-			for (int i = 0; i < maxChannel_; i++)
-				if (pings[i] > 0)
-					mean[i] = integrate[i] / (double)(pings[i] - nullpings[i]);
-
-			/* --- calculate deviation from triangle waves --- */
-
-			/* calculate contribution of wave to mean for each candidate wave */
-			double[] adjmean = new double[WAVE];
-			if ((maxPings % WAVE) != 0) {
-				for (int p = 0; p < WAVE; p++) {
-					for (int i=0; i < maxPings % WAVE; i++)
-						adjmean[p] += wave(p + i + skip);
-					adjmean[p] *= n / (double)maxPings;
-				} 
-			}
-
-			/* ping number of current ping */
-			int ping = 0;
-
-			/* output column headings and parameters */
+			/* get ping values and statistics and compare with candidate triangle waves, see ES60Detector.detect() */
+			detector.setThreads(0);
 			if (output_)
-				System.out.println("Channel\tPing\tsum\tn*wave\tMean\tadj\tdev[0]\t" + first + "\t" + last + "\t" + maxPings + "\t");
-
-			/* for each ping in dataset / for each channel with data / for each candidate wave / calculate deviation */
-			for (int v = 0; v < maxPings; v++) {
-				for(int channel = 0; channel < maxChannel_; channel++) {
-					if (v < pings[channel] && pingVal[channel][v] != 0) {
-						ping = skip + v;
-						for (int p = 0; p < WAVE; p++) {
-							/* calculate weighted running mean of ping value */			    
-							double dev = pingVal[channel][v];
-							double nVals = 1;
-							for (int i = 1; i < avgWindow; i++) {
-								if (v - i >= 0 && pingVal[channel][v - i] != 0) {
-									dev += pingVal[channel][v - i] / (1.0 + i);
-									nVals += 1 / (1.0 + i);
-								}
-								if (v + i < pingVal[channel].length && pingVal[channel][v + i] != 0) {
-									dev += pingVal[channel][v + i] / (1.0 + i);
-									nVals += 1 / (1.0 + i);
-								}
-							}
-							dev /= nVals;
-
-							/* calculate deviation of ping from mean plus candiate wave */
-							dev -= mean[channel] - adjmean[p] + n * wave(ping + p);
-							if (dev < 0)
-								dev = - dev;
-							if (algorithm == 1)
-								dev *= dev;
-							if (algorithm == 2)
-								dev = Math.sqrt(dev);
-							if (algorithm == 3)
-								dev = Math.log(1 + dev);
-							deviation[channel][p] += dev;
-						}
+				detector.setOutput(System.out);
+			getStats(detector);
+			int maxPings = detector.getPings();
 
-						/* calculate deviation of ping from mean with no wave */
-						double zdev = mean[channel] - pingVal[channel][v];
-						if (zdev <0)
-							zdev = - zdev;
-						if (algorithm == 1)
-							zdev *= zdev;
-						if (algorithm == 2)
-							zdev = Math.sqrt(zdev);
-						if (algorithm == 3)
-							zdev = Math.log(1 + zdev);
-						zeroDev[channel] += zdev;
-
-						/* output ping details */
-						if (output_)
-							System.out.println(channel + "\t" + ping + "\t" + pingVal[channel][v] + "\t" + (n * wave(ping)) + "\t" + 
-									mean[channel] + "\t" + adjmean[ping % WAVE] + "\t" + 
-									(mean[channel] + adjmean[0] - pingVal[channel][v] + n * wave(ping)));
-					}
-				}
-			}
+			/* number of pings for each channel in this file, if known */
+			int[] total = scan_.getPings();
 
-			/* for each channel with data / find window with best fit - output results */
+			/* for each channel with data / output results */
 			synchronized (channelPane_) {
 
-				/* output column headers for candidate wave data */
-				if (output_)
-					System.out.println("Channel\tInitialPing\tdeviation\t" + first + "\t" + last + "\t" + maxPings + "\t" + ALGORITHMS[algorithm]);
-
-				for (int channel = 0; channel < maxChannel_; channel++)
-					if (pings[channel] > 0) {
+				for (int channel = 0; channel < scan_.getMaxChannel(); channel++)
+					if (detector.getResult(channel) != null) {
+						int[] pingVal = detector.getPingValues(channel);
 
-						/* --- find window with least deviation , i.e. best fit --- */
+						/* --- window with least deviation , i.e. best fit --- */
+						ES60Detector.Result result = detector.getResult(channel);
 						/* ping number of first ping of best fit wave */
-						int initial = 0;
+						int initial = result.getInitial();
 						/* sum of deviation of window of best fit wave */
-						double min = Double.MAX_VALUE;
+						double min = result.getDeviation();
 						/* number of candidates that also have the best fit score */
-						int count = 0;
-
-						/* for each candidate wave */
-						for (int p = 0; p < WAVE; p++) {
-
-							/* output candidate wave data */
-							if (output_)
-								System.out.println(channel + "\t" + p + "\t" + deviation[channel][p]);
-
-							/* sum window */
-							double windev = 0;
-							for (int w = 0; w < window; w++) 
-								windev += deviation[channel][(p + w) % WAVE];
-
-							/* if this window is an equal best */
-							if (windev == min) 
-								count++;
-
-							/* if this window is the best fit so far */
-							else if (windev < min) {
-								min = windev;
-								initial = (p + window / 2) % WAVE; // center of window
-								count = 0;
-							}
-						}
+						int count = result.getCount();
+						/* mean fire pulse of channel less contribution of part wave */
+						double mean = detector.getMean(channel) - detector.getAdjMean(initial);
 
 						/* --- display result - details in tooltip --- */
 						/* channel number - search parameters */
 						JLabel iLabel = new JLabel("" + channel);
-						String summary = "First " + first + 
-						", Last " + last + 
-						", Average " + avgWindow +
-						", Window " + window +
-						", Pings " + maxPings +
-						", Skip " + skip +
-						"  " + ALGORITHMS[algorithm];
+						String summary = detector.toString();
 						iLabel.setToolTipText(summary);
 						channelPane_.add(iLabel);
 
 						/* Number of pings for this channel in this file, if known */
-						if (pings_ != null)
-							channelPane_.add(new JLabel("" + pings_[channel]));
+						if (total != null)
+							channelPane_.add(new JLabel("" + total[channel]));
 						else
 							channelPane_.add(new JLabel(""));
 
@@ -1362,58 +1305,51 @@ public class ES60Adjust extends JComponent {
 						/* position in wave of last ping in file - fin */
 						JComponent end = new JLabel("");
 
-						/* minimum distance from turning point for less than half wave length data to be considered reliable */
-						int epsilon = 32;
 						/* turning points */
 						int turn1 = WAVE / 4 + 1;
 						int turn2 = WAVE * 3 / 4 + 1;
 
 						/* position in wave of last ping in file */
-						int fin = (initial + maxPings) % WAVE;
-						if (pings_ != null)
-							fin = (initial + pings_[channel]) % WAVE;
+						int filePings = (total != null) ? total[channel] : -1;
+						int fin = result.getFinal(filePings);
 
 						/* - Check quality of solution - */ 
+						int status = result.getStatus(filePings);
+
 						/* If flat mean fits better than any candidate wave */
-						if (zeroDev[channel] * window < min) {
+						if (status == ES60Detector.NONE) {
 							start = new JLabel("None");
 							start.setToolTipText("Triangle wave error not detected " +
-									(zeroDev[channel] * window) + " < " + min + " @ " + initial + ":" + count);
+									result.getZeroDeviation() + " < " + min + " @ " + initial + ":" + count);
 
 							/* if multiple candidates */
-						} else if (count > 0) {
+						} else if (status == ES60Detector.UNKNOWN) {
 							start = new JLabel("Unknown");
 							start.setToolTipText((count + 1) + " equally ranked possible values, the first is " + initial);
 
 							/* if start of data is too close to turning point to be reliable */
-						} else if (maxPings < WAVE / 2 &&
-								((turn1 - epsilon < initial && turn1 + epsilon > initial) || 
-										(turn2 - epsilon < initial && turn2 + epsilon > initial))) {
+						} else if (status == ES60Detector.EDGE_START) {
 							start = new JLabel(initial + " ??");
 							start.setToolTipText("Detected turning point is too close to edge of data to be reliable");
 							end = new JLabel(fin + "");
 							end.setToolTipText("Detected turning point is too close to edge of data to be reliable");
 
 							/* if end of data is too close to turning point to be reliable */
-						} else if (maxPings < WAVE / 2 &&
-								((turn1 - epsilon < fin && turn1 + epsilon > fin) || 
-										(turn2 - epsilon < fin && turn2 + epsilon > fin))) {
+						} else if (status == ES60Detector.EDGE_END) {
 							start = new JLabel(initial + "");
 							start.setToolTipText("Detected turning point is too close to edge of data to be reliable");
 							end = new JLabel(fin + " ??");
 							end.setToolTipText("Detected turning point is too close to edge of data to be reliable");
 
 							/* if no turning points are included in the data set - on down slope */
-						} else if (maxPings < WAVE / 2 &&
-								turn1 < initial && initial < fin && fin < turn2) {
+						} else if (status == ES60Detector.DOWN_SLOPE) {
 							start = new JLabel(turn1 + " - " + (turn2 - maxPings));
 							start.setToolTipText("No turning point found in the data " + turn1 + " < " + initial);
 							end = new JLabel((turn1 + maxPings) + " - " + turn2);
 							end.setToolTipText("No turning point found in the data " + fin + " < " + turn2);
 
 							/* if no turning points are included in the data set - on up slope */
-						} else if (maxPings < WAVE / 2 &&
-								turn2 < initial && fin < turn1) {
+						} else if (status == ES60Detector.UP_SLOPE) {
 							start = new JLabel(turn2 + " - " + ((turn1 - maxPings) % WAVE));
 							start.setToolTipText("No turning point found in the data " + turn2 + "< "+  initial);
 							end = new JLabel(((turn2 + maxPings) % WAVE) + " - " + turn1);
@@ -1494,16 +1430,16 @@ public class ES60Adjust extends JComponent {
 							}
 
 							/* end of file mark */
-							if (pings_ != null && maxPings > pings_[channel]) {
+							if (total != null && maxPings > total[channel]) {
 								g.setColor(Color.RED);
-								g.draw(new Line2D.Double(pings_[channel] - skip, - n * WAVE, pings_[channel] - skip, n * WAVE));
+								g.draw(new Line2D.Double(total[channel] - skip, - n * WAVE, total[channel] - skip, n * WAVE));
 							}
 
 							/* draw each data point as a 1 ping x 1 val or 1 pixel x 1 pixel rectangle, whichever is larger */
 							g.setColor(Color.BLUE);
 							for (int v = 0; v < maxPings; v++) {
-								g.draw(new Rectangle2D.Double(v, mean[channel] - adjmean[initial] - pingVal[channel][v], sizex, sizey));
-								g.fill(new Rectangle2D.Double(v, mean[channel] - adjmean[initial] - pingVal[channel][v], sizex, sizey));
+								g.draw(new Rectangle2D.Double(v, mean - pingVal[v], sizex, sizey));
+								g.fill(new Rectangle2D.Double(v, mean - pingVal[v], sizex, sizey));
 							}
 
 							/* draw line of best fit calculated */
@@ -1527,7 +1463,7 @@ public class ES60Adjust extends JComponent {
 						final String title = file_ + " [" + channel + "] " + summary; 
 						final double yscale = valPerPixel / n;
 						final double xscale = pingsPerPixel;
-						final int yoffset = (int)((mean[channel] - adjmean[initial]) / n + centre * yscale);
+						final int yoffset = (int)(mean / n + centre * yscale);
 						final int xoffset = skip - (int)edge ;
 						final NumberFormat format = NumberFormat.getInstance();
 						format.setMaximumFractionDigits(2);
@@ -1612,232 +1548,172 @@ public class ES60Adjust extends JComponent {
 		}
 
 		/**
-		 *  This method performs two operations while reading the entire ES60File:
-		 *  1) it compiles statistics of the file (starting, end, min, max, counts etc) 
-		 *  and displays them in filePane_;
-		 *  2) it integrates the samples from the first to last (inclusive) samples of each ping
-		 *  for each channel.
-		 *
-		 *  The files statistics are only compiled if they have not previously been compiled,
-		 *  (haveStats_ is false). 
-		 *  If haveStats_ is true the file will only be read until sufficient (search + skip) pings
-		 *  have been read for each channel.
+		 *  Read the file with the parameters of a detector and find the best fit,
+		 *  see ES60Scan.analyse(), and display the statistics of this file
+		 *  and of any following files read, if they were collected.
 		 *
+		 *  The files statistics are only compiled if they have not previously been compiled.
 		 *  If there are insufficient pings in this file, but there is a next file, the remainder of the pings
 		 *  are gathered from the next file.
 		 *
-		 *  This method does both functions as it seemed that reading the file twice, once for each function,
-		 *  would be inefficient.
-		 *
-		 *  All parameters are related to the sample integration function.
-		 *
-		 *  
-		 *  @param first First sample to include in search for trianlge wave, 
-		 *               should be within fire pulse.
-		 *  @param last Last sample to include in search for triable wave,
-		 *               must be greater than first and should still be within fire pulse.
-		 *  @param search Maximum number of pings to include in calculation.
-		 *  @param skip Number of intial pings to skip before starting calculation.
-		 *  @param pings Count of pings read for each channel. (updated by this method). 
-		 *  @param nullpings Count of pings with insufficient samples for each channel. (updated by this method)
-		 *  @param integrate Sum of sample range for all pings for each channel. (updated by this method)
-		 *  @param pingVal Sum of sample range for each ping for each channel. (updated by this method)
-		 *  @return number of pings successfully read into pingVal.
+		 *  @param detector Detector giving the parameters, which has no results if a file could not be read.
 		 **/
-
-		public int getStats(int first, int last, int search, int skip, int[] pings, int[] nullpings, int[] integrate, int[][] pingVal) {
-			ES60NMEA firstPos = null;
-			ES60NMEA lastPos = null;
-			int minCount = Integer.MAX_VALUE;
-			int maxCount = 0;
-			double north = Double.NaN;
-			double south = Double.NaN;
-			double east = Double.NaN;
-			double west = Double.NaN;
-
-			int[] pingtotal = new int[maxChannel_];
-
-			/*  can we skip this file? */
-			if (pings_ != null && skip > 0) 
-				for (int i = 0; i < pings_.length; i++) {
-					if (pings_[i] > 0 && pings_[i] <= skip) {
-						if (next_ == null)
-							return 0;
-						else
-							return next_.getStats(first, last, search, skip - pings_[i], pings, nullpings, integrate, pingVal);
-					}
-				}
-
-			/* read the file */
+		public void getStats(ES60Detector detector) {
 			try {
-				file_.open();
-				ES60Record rec = file_.read();
-				con_ = rec;
-
-				try { 
-					while (true) {
-						/* get next record from file */
-						if (rec instanceof ES60RAW) {
-							ES60RAW rrec = (ES60RAW)rec;
-							int channel = rrec.getChannel();
-							if (pingVal[channel] == null)
-								pingVal[channel] = new int[search];
-
-							if (++pingtotal[channel] > skip && pings[channel] < search) 
-								try {
-									pingVal[channel][pings[channel]]= rrec.getSum(first, last);
-									integrate[channel] += pingVal[channel][pings[channel]];
-									pings[channel]++;
-								} catch (ES60RAW.InsufficientSamplesException ise) {
-									pingVal[channel][pings[channel]] = 0;
-									nullpings[channel]++;
-									pings[channel]++;
-								} catch (ArrayIndexOutOfBoundsException aioobe) {
-									aioobe.printStackTrace();
-								}
+				scan_.analyse(detector);
+			} catch (IOException ioe) {
+				JOptionPane.showMessageDialog(ES60Adjust.this,
+						"Could not analyse file " + ioe, 
+						file_.toString(),
+						JOptionPane.ERROR_MESSAGE);
+			}
+			for (Analyse a = this; a != null; a = a.next_)
+				a.showStats();
+		}
 
-								else if (haveStats_ && pings[channel] > search)
-									break;
+		/**
+		 *  Display the statistics of the file in filePane_, once they have been collected.
+		 **/
+		void showStats() {
+			if (shown_ || scan_.getStart() == null)
+				return;
+			shown_ = true;
 
-							if (!haveStats_) {
-								int count = rrec.getCount();
-								if (count > maxCount)
-									maxCount = count;
-								if (count < minCount)
-									minCount = count;
-							}
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+			dateFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
+			NumberFormat degFormat = NumberFormat.getInstance();
+			degFormat.setMaximumFractionDigits(6);
+			degFormat.setMinimumFractionDigits(6);
 
-							/* Get position stats if wanted */
-						} else if (!haveStats_ && rec instanceof ES60NMEA) {
-							ES60NMEA nrec = (ES60NMEA)rec;
-							if (nrec.hasPos()) {
-								lastPos = nrec;
-								if (firstPos == null) {
-									firstPos = nrec;
-									north = south = nrec.getLatitude();
-									east = west = nrec.getLongitude();
-								} else {
-									double lat = nrec.getLatitude();
-									double lon = nrec.getLongitude();
-									if (lat > north)
-										north = lat;
-									if (lat < south)
-										south = lat;
-									if (lon > east)
-										east = lon;
-									if (lon < west)
-										west = lon;
-								}
-							}
-						}
-						rec = file_.read();
-					}
-				} catch (EOFException eof) {}
-				file_.close();
-
-				/* determine maximum channel number */
-				int minChannel = -1;
-				int maxChannel = 0;
-				int maxPings = 0;
-				for (int i = 0; i < pings.length; i++) {
-					if (pings[i] > 0) {
-						maxChannel = i + 1;
-						if (minChannel < 0)
-							minChannel = i;
-					}
-					if (pings[i] > maxPings)
-						maxPings = pings[i];
-				}
+			ES60NMEA firstPos = scan_.getFirstPos();
+			ES60NMEA lastPos = scan_.getLastPos();
 
-				if (maxPings > 0)
-					maxChannel_ = maxChannel;
-
-				/* display stats */
-				if (!haveStats_) {
-					SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
-					dateFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
-					NumberFormat degFormat = NumberFormat.getInstance();
-					degFormat.setMaximumFractionDigits(6);
-					degFormat.setMinimumFractionDigits(6);
-
-					filePane_.add(new JLabel("Start"));
-					filePane_.add(new JLabel(dateFormat.format(con_.getTime())));
-					if (firstPos != null) {
-						filePane_.add(new JLabel(""));
-						JComponent startPos = new JPanel(new GridLayout(1,2));
-						startPos.add(new JLabel(degFormat.format(firstPos.getLatitude())));
-						startPos.add(new JLabel(degFormat.format(firstPos.getLongitude())));
-						filePane_.add(startPos);
-					}
-					filePane_.add(new JLabel("End"));
-					filePane_.add(new JLabel(dateFormat.format(rec.getTime())));
-					if (lastPos != null) {
-						filePane_.add(new JLabel(""));
-						JComponent endPos = new JPanel(new GridLayout(1,2));
-						endPos.add(new JLabel(degFormat.format(lastPos.getLatitude())));
-						endPos.add(new JLabel(degFormat.format(lastPos.getLongitude())));
-						filePane_.add(endPos);
-
-						filePane_.add(new JLabel("North West"));
-						JComponent nwPos = new JPanel(new GridLayout(1,2));
-						nwPos.add(new JLabel(degFormat.format(north)));
-						nwPos.add(new JLabel(degFormat.format(west)));
-						filePane_.add(nwPos);
-
-						filePane_.add(new JLabel("South East"));
-						JComponent sePos = new JPanel(new GridLayout(1,2));
-						sePos.add(new JLabel(degFormat.format(south)));
-						sePos.add(new JLabel(degFormat.format(east)));
-						filePane_.add(sePos);
-					}
+			filePane_.add(new JLabel("Start"));
+			filePane_.add(new JLabel(dateFormat.format(scan_.getStart())));
+			if (firstPos != null) {
+				filePane_.add(new JLabel(""));
+				JComponent startPos = new JPanel(new GridLayout(1,2));
+				startPos.add(new JLabel(degFormat.format(firstPos.getLatitude())));
+				startPos.add(new JLabel(degFormat.format(firstPos.getLongitude())));
+				filePane_.add(startPos);
+			}
+			filePane_.add(new JLabel("End"));
+			filePane_.add(new JLabel(dateFormat.format(scan_.getEnd())));
+			if (lastPos != null) {
+				filePane_.add(new JLabel(""));
+				JComponent endPos = new JPanel(new GridLayout(1,2));
+				endPos.add(new JLabel(degFormat.format(lastPos.getLatitude())));
+				endPos.add(new JLabel(degFormat.format(lastPos.getLongitude())));
+				filePane_.add(endPos);
+
+				filePane_.add(new JLabel("North West"));
+				JComponent nwPos = new JPanel(new GridLayout(1,2));
+				nwPos.add(new JLabel(degFormat.format(scan_.getNorth())));
+				nwPos.add(new JLabel(degFormat.format(scan_.getWest())));
+				filePane_.add(nwPos);
+
+				filePane_.add(new JLabel("South East"));
+				JComponent sePos = new JPanel(new GridLayout(1,2));
+				sePos.add(new JLabel(degFormat.format(scan_.getSouth())));
+				sePos.add(new JLabel(degFormat.format(scan_.getEast())));
+				filePane_.add(sePos);
+			}
 
-					filePane_.add(new JLabel("Min samples"));
-					filePane_.add(new JLabel("" + minCount));
-					filePane_.add(new JLabel("Max samples"));
-					filePane_.add(new JLabel("" + maxCount));
+			filePane_.add(new JLabel("Min samples"));
+			filePane_.add(new JLabel("" + scan_.getMinCount()));
+			filePane_.add(new JLabel("Max samples"));
+			filePane_.add(new JLabel("" + scan_.getMaxCount()));
 
-					pings_ = new int[maxChannel_];
-					for (int i = 0; i < maxChannel_; i++)
-						pings_[i] = pingtotal[i];
+			pack();
+		}
 
-					haveStats_ = true;
-					pack();
-				}
+	}
 
-				/* Do we need the next file? */
-				if (search > maxPings) {
+	/* ----- Class Job ----- */
 
-					/* We have ping information for this file, save it if we haven't already */
-					if (pings_ == null) {
-						pings_ = new int[maxChannel_];
-						for (int i = 0; i < maxChannel_; i++)
-							pings_[i] = pingtotal[i];
-					}
+	/**
+	 *  Job is a file, or a chunk of a file, to be corrected, the ping number 
+	 *  of its first ping, and the ping number reached while correcting it.
+	 **/
+	protected static class Job {
+		/** File to correct. */
+		File inFile_;
+		/** File to write. */
+		File outFile_;
+		/** Ping number of the first ping in the file. */
+		int startPing_;
+		/** Ping number reached. */
+		int pingNo_;
+		/** Bytes processed before this file, for progress. */
+		long bytesDone_;
+		/** Total bytes to process, for progress. */
+		long totalBytes_;
+		/** File offset of the first datagram to correct. */
+		long start_ = 0;
+		/** File offset at which to stop, Long.MAX_VALUE for the whole file. */
+		long end_ = Long.MAX_VALUE;
+		/** Channels seen for the ping number at start_. */
+		int channelmask_ = 0;
+		/** For a chunk, the job for the whole file. */
+		Job file_;
+		/** For a whole file split into chunks, the number of chunks not yet corrected. */
+		AtomicInteger chunks_;
+		/** Output while the file is held open by detect(). */
+		ES60Writer out_;
+		/** CRC32 of the whole output if it was kept while writing, else -1. */
+		long crc_ = -1;
+
+		Job(File inFile, File outFile, int pingNo, long bytesDone, long totalBytes) {
+			inFile_ = inFile;
+			outFile_ = outFile;
+			startPing_ = pingNo_ = pingNo;
+			bytesDone_ = bytesDone;
+			totalBytes_ = totalBytes;
+		}
 
-					/* we have all the data we can get */		    
-					if (next_ == null)
-						return maxPings;
+		/**
+		 *  Create a job for a chunk of a file.
+		 *  @param file Job for the whole file.
+		 *  @param start File offset of the first datagram of the chunk.
+		 *  @param pingNo Ping number at start.
+		 *  @param channelmask Channels seen for pingNo.
+		 **/
+		Job(Job file, long start, int pingNo, int channelmask) {
+			this(file.inFile_, file.outFile_, pingNo, file.bytesDone_ + start, file.totalBytes_);
+			file_ = file;
+			start_ = start;
+			channelmask_ = channelmask;
+		}
 
-					/* get more data */
-					if (skip > maxPings)
-						skip -= maxPings;
-					else
-						skip = 0;
-					return next_.getStats(first, last, search, skip, pings, nullpings, integrate, pingVal);
-				}
+		/**
+		 *  Is this a chunk of a file?
+		 *  @return true if this is a chunk of a file written by several jobs.
+		 **/
+		boolean isChunk() {
+			return file_ != null;
+		}
+	}
 
-				/* We have all the data we want */
-				return search;
+	/* ----- Class Held ----- */
 
-			} catch (IOException ioe) {
-				JOptionPane.showMessageDialog(ES60Adjust.this,
-						"Could not analyse file " + ioe, 
-						file_.toString(),
-						JOptionPane.ERROR_MESSAGE);
-			}
-			return 0;
+	/**
+	 *  Held is a record read from a stream by detect() before the ping
+	 *  number of the first ping is known, kept to be corrected and written
+	 *  once it is.
+	 **/
+	protected static class Held {
+		/** Record read. */
+		ES60Record rec_;
+		/** Was the record read from a little endian file? */
+		boolean swap_;
+		/** File the record was read from. */
+		Job job_;
+
+		Held(ES60Record rec, boolean swap, Job job) {
+			rec_ = rec;
+			swap_ = swap;
+			job_ = job;
 		}
-
 	}
 
 	/* ---------- Static Public Methods ---------- */
@@ -1855,6 +1731,13 @@ public class ES60Adjust extends JComponent {
 	 *    file.raw - one or more ES60 raw files.
 	 *
 	 *  outputs filec.raw...
+	 *
+	 *  usage: java ES60Adjust ping - 
+	 *    reads datagrams from stdin and writes corrected datagrams to stdout
+	 *
+	 *  usage: java ES60Adjust -detect [-validate] file.raw...
+	 *    detects the initial ping number from the first pings, see detect()
+	 *    -validate checks the coarse search against every candidate, see ES60Detector.search()
 	 *</pre>
 	 **/
 	public static void main(String[] args) {
@@ -1896,36 +1779,121 @@ public class ES60Adjust extends JComponent {
 			return;
 		}
 
-		/* output usage message */
-		if (args.length < 2) {
-			System.err.println("usage: java ES60Adjust ping file.raw...");
-			System.err.println("    ping - initial ping number");
-			System.err.println("    file.raw - one or more ES60 .raw files");
-			System.exit(0);
+		/* options */
+		int arg = 0;
+		int threads = 0;
+		boolean apply = false;
+		boolean detect = false;
+		for (; arg < args.length; arg++) {
+			if ("-detect".equals(args[arg]))
+				detect = true;
+			else if ("-validate".equals(args[arg]))
+				validate__ = true;
+			else if ("-patch".equals(args[arg]))
+				patch__ = true;
+			else if ("-adj".equals(args[arg]))
+				adj__ = true;
+			else if ("-apply".equals(args[arg]))
+				apply = true;
+			else if ("-threads".equals(args[arg]) && arg + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++arg]);
+				} catch (NumberFormatException nfe) {
+					System.err.println("-threads requires a number of threads");
+					System.exit(1);
+				}
+				if (threads <= 0)
+					threads = Runtime.getRuntime().availableProcessors();
+			} else if ("-chunk".equals(args[arg]) && arg + 1 < args.length) {
+				try {
+					chunkBytes__ = Long.parseLong(args[++arg]) << 20;
+				} catch (NumberFormatException nfe) {
+					System.err.println("-chunk requires a size in MB");
+					System.exit(1);
+				}
+				if (chunkBytes__ <= 0) {
+					System.err.println("-chunk requires a size in MB");
+					System.exit(1);
+				}
+				if (threads <= 0)
+					threads = Runtime.getRuntime().availableProcessors();
+			} else
+				break;
+		}
+
+		/* correct files from their patch files */
+		if (apply && args.length > arg) {
+			File[] inFile = new File[args.length - arg];
+			for (int i = arg; i < args.length; i++) 
+				inFile[i - arg] = new File(args[i]);
+			apply(inFile, null, "c");
+			return;
+		}
+
+		/* detect the initial ping number then correct */
+		if (detect && args.length > arg) {
+			if (args.length - arg == 1 && "-".equals(args[arg])) {
+				if (detect(System.in, stream()) < 0)
+					System.exit(1);
+				return;
+			}
+			File[] inFile = new File[args.length - arg];
+			for (int i = arg; i < args.length; i++) 
+				inFile[i - arg] = new File(args[i]);
+
+			/* the fused pass only writes corrected copies, on one thread */
+			if (!patch__ && !adj__ && threads <= 0) {
+				if (!detect(inFile, null, "c"))
+					System.exit(1);
+				return;
+			}
+			int pingNo = detectPing(inFile);
+			if (pingNo < 0)
+				System.exit(1);
+			if (threads > 0 && !adj__)
+				process(pingNo, inFile, null, "c", threads);
+			else
+				process(pingNo, inFile, null, "c");
+			return;
 		}
 
+		/* output usage message */
+		if (args.length - arg < 2)
+			usage(0);
+
 		int pingNo = 0;
 		try {
-			pingNo = Integer.parseInt(args[0]);
+			pingNo = Integer.parseInt(args[arg]);
 		} catch (Exception e) {
-			System.err.println("usage: java ES60Adjust ping file.raw...");
-			System.err.println("    ping - initial ping number (non-negative integer)");
-			System.err.println("    file.raw - one or more ES60 .raw files");
-			System.exit(1);
+			usage(1);
 		}
 
-		/* get input files */
-		File[] inFile = new File[args.length -1];
-		for (int i=1; i < args.length; i++) 
-			inFile[i - 1] = new File(args[i]);
+		/* correct stdin to stdout */
+		if (args.length - arg == 2 && "-".equals(args[arg + 1])) {
+			process(pingNo, System.in, stream());
+			return;
+		}
 
-		/* run processing */
-		process(pingNo, inFile, null, "c");
+		/* get input files */
+		File[] inFile = new File[args.length - arg - 1];
+		for (int i = arg + 1; i < args.length; i++) 
+			inFile[i - arg - 1] = new File(args[i]);
+
+		/* run processing, patch files are quick enough to write sequentially */
+		if (threads > 0 && !adj__)
+			process(pingNo, inFile, null, "c", threads);
+		else
+			process(pingNo, inFile, null, "c");
 	}
 
 	/**
 	 *  Process input files.
 	 *
+	 *  Each file finished is recorded in a journal in outdir (see ES60Journal),
+	 *  and files recorded there are skipped, so if processing is interrupted
+	 *  it continues from where it stopped when restarted with the same files.
+	 *  The journal is deleted once all the files have been processed.
+	 *
 	 *  @param pingNo Ping number of first ping of first file in triangle wave sequence.
 	 *  @param inFile Files to process, in order (ping number carries through)
 	 *  @param outdir Directory to write output files to. If null current directory is used.
@@ -1934,107 +1902,54 @@ public class ES60Adjust extends JComponent {
 	public static void process(int pingNo, File[] inFile, File outdir, String affix) {
 
 		int processed = 0;	/* number of files processed */       
-		int startPing = pingNo;	/* ping number of first ping of this file */
+		int attempted = 0;	/* number of files found */
 		long totalBytes = 0;	/* total size of files to process */
 		long bytesDone = 0;	/* total size of files processed */
 
 		for (int i=0; i < inFile.length; i++) 
 			totalBytes += inFile[i].length();
 
+		/* patch files are not journaled, they are quick to write again */
+		if (!adj__)
+			openJournal(outdir, true);
+
 		try {
 			for (int i=0; i < inFile.length; i++) {
 				if (Thread.interrupted())
 					throw new InterruptedException();
 
-				/* check filename ends with .raw */
-				String filename = inFile[i].getName();
-				if (!filename.toLowerCase().endsWith(".raw")) {
-					error("Filename does not end in .raw - skipped: " + filename);
+				File outfile = getOutputFile(inFile[i], outdir, affix);
+				if (outfile == null)
 					continue;
-				}
-
-				/* create output file */
-				String outname = filename.substring(0, filename.length() - 4) + affix + ".raw";
-
-				File outfile = new File(outdir, outname);
-
-				if (outfile.equals(inFile[i])) {
-					error("Output file is the same as input - aborting: " + inFile[i].getPath());
-					throw new InterruptedException("Output file is the same as input");
-				}
 
 				/* process this file */
 				if (inFile[i].isFile()) {
-					try {
-						/* input file */
-						long inLength = inFile[i].length();
-						ES60File esFile = new ES60File(inFile[i]);
-						esFile.open();
-						startPing = pingNo;
-
-						/* output file */
-						FileOutputStream fos = null;
-						try {
-							fos = new FileOutputStream(outfile);
-						} catch (IOException ioe) {
-							error("Could not create file " + outfile.getPath());
-							continue;
-						}
-						DataOutputStream out = new DataOutputStream(fos);
-
-						/* if a second record appears for any channel increment ping number */
-						int channelmask = 0;
-
-						try {
-							while (true) {
-								if (Thread.interrupted())
-									throw new InterruptedException();
-
-								/* get next record from file */
-								ES60Record rec = esFile.read();
-								if (rec instanceof ES60RAW) {
-									ES60RAW rrec = (ES60RAW)rec;
-
-									/* check if this pingNo has been used for this channel */
-									int channelflag = 1 << rrec.getChannel();
-									if ((channelmask & channelflag) == 0)
-										channelmask |= channelflag;
-									else {
-										pingNo++;
-										channelmask = channelflag;
-										if (pingNo % 100 == 0)
-											update(filename + " pings: " + startPing + "-" + pingNo + " to " + outname, 
-													outfile.length() * 100 / inLength,
-													(bytesDone + outfile.length()) * 100 / totalBytes,
-													false);
-									}
-
-									int adj = wave(pingNo);
+					attempted++;
+					Job job = new Job(inFile[i], outfile, pingNo, bytesDone, totalBytes);
 
-									/* process this record */
-									if (adj != 0)
-										rrec.es60adjust(adj);
-								}
-
-								/* write record to output file */
-								rec.write(out, esFile.swap());
-							} // while (true)
-						} catch (EOFException eof) {}
-
-						/* finished this file */
-						out.close();
-						esFile.close();
+					/* skip files finished before an interruption */
+					ES60Journal.Entry entry = journaled(job);
+					if (entry != null) {
 						processed++;
-						bytesDone += outfile.length();
-						update(filename + " pings: " + startPing + "-" + pingNo + " to " + outname, 
-								100L,
-								bytesDone * 100 / totalBytes,
-								true);
-						pingNo++;
+						bytesDone += inFile[i].length();
+						pingNo = entry.getEndPing() + 1;
+						continue;
+					}
 
+					try {
+						if (adj__)
+							writePatch(job);
+						else if (patch__)
+							patch(job);
+						else
+							correct(job);
+						processed++;
+						bytesDone += inFile[i].length();
+						job.pingNo_++;
 					} catch (IOException ioe) {
 						ioe.printStackTrace();
 					}
+					pingNo = job.pingNo_;
 
 				} else
 					error("Can't find file: " + inFile[i]);
@@ -2042,7 +1957,9 @@ public class ES60Adjust extends JComponent {
 
 		} catch (InterruptedException ie) {
 			error("Processing interrupted");
+			attempted = -1;
 		}
+		closeJournal(processed == attempted);
 
 		/* all done */
 		update("Processed " + processed + " files", 100L, 100L, true);
@@ -2050,7 +1967,1207 @@ public class ES60Adjust extends JComponent {
 			gui__.done();
 	}
 
-	/* ---------- Protected Static Methods ---------- */
+	/**
+	 *  Correct a stream of datagrams, such as a .raw file piped to System.in,
+	 *  writing corrected datagrams to another stream.
+	 *
+	 *  Datagrams are corrected and written as they are read, so this can sit
+	 *  in a pipeline between decompression and transfer of the data.
+	 *  The input is read through a buffer of STREAM_BUFFER bytes and the output
+	 *  written in batches by an ES60Writer.
+	 *  Ping numbers are counted as in correct().
+	 *  Both streams are closed when the input is exhausted.
+	 *
+	 *  @param pingNo Ping number of first ping in triangle wave sequence.
+	 *  @param in Stream to read datagrams from.
+	 *  @param out Stream to write corrected datagrams to.
+	 *  @return Ping number following the last ping of the stream.
+	 **/
+	public static int process(int pingNo, InputStream in, OutputStream out) {
+		int startPing = pingNo;
+		ES60File esFile = new ES60File(in);
+		esFile.setBufferSize(STREAM_BUFFER, STREAM_BUFFER);
+		ES60Writer writer = new ES60Writer(Channels.newChannel(out));
+
+		try {
+			try {
+				/* if a second record appears for any channel increment ping number */
+				int channelmask = 0;
+
+				while (esFile.hasNext()) {
+					ES60Record rec = esFile.read();
+					if (rec instanceof ES60RAW) {
+						ES60RAW rrec = (ES60RAW)rec;
+
+						/* check if this pingNo has been used for this channel */
+						int channelflag = 1 << rrec.getChannel();
+						if ((channelmask & channelflag) == 0)
+							channelmask |= channelflag;
+						else {
+							pingNo++;
+							channelmask = channelflag;
+							if (pingNo % 100 == 0)
+								update("stdin pings: " + startPing + "-" + pingNo + " " + 
+										(writer.getPosition() >> 20) + " MB", -1, -1, false);
+						}
+
+						int adj = wave(pingNo);
+						if (adj != 0)
+							rrec.es60adjust(adj);
+					}
+					writer.write(rec, esFile.swap());
+				}
+				if (esFile.isTruncated())
+					error("Incomplete datagram at end of input not copied");
+			} catch (EOFException eof) {
+				error("Incomplete datagram at end of input not copied");
+			} finally {
+				try {
+					writer.close();
+				} finally {
+					esFile.close();
+				}
+			}
+			update("stdin pings: " + startPing + "-" + pingNo + " " + (writer.getPosition() >> 20) + " MB", -1, -1, true);
+			pingNo++;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return pingNo;
+	}
+
+	/**
+	 *  Detect the ping number of the first ping of a sequence of files and
+	 *  correct them, reading each file once.
+	 *
+	 *  The fire pulse of the first pings of each channel is collected by an
+	 *  ES60Detector (with the parameters used to analyse files, see
+	 *  ES60Detector()) as the files are read. Only the files read meanwhile,
+	 *  and how far into the last, are kept. Once the detector has enough pings,
+	 *  or any channel has HOLD_PINGS times as many as it needs, the ping
+	 *  number is detected, the files read are read again to correct and
+	 *  write them, and the rest of the files are corrected as they are read.
+	 *  Ping numbers are counted as in process()
+	 *  and the output is the same as process() with the detected ping number.
+	 *  If the files run out first the ping number is detected from the pings read.
+	 *  If the triangle wave is not found no files are written.
+	 *  Files are journaled as in process(), and if the first file is in the
+	 *  journal its ping number is taken from there and process() resumes.
+	 *
+	 *  @param inFile Files to process, in order (ping number carries through)
+	 *  @param outdir Directory to write output files to. If null current directory is used.
+	 *  @param affix  String to append to output filename prior to .raw extension.
+	 *  @return false if the triangle wave was not found, or a file could not
+	 *          be processed, else true.
+	 **/
+	public static boolean detect(File[] inFile, File outdir, String affix) {
+
+		int processed = 0;	/* number of files processed */       
+		long totalBytes = 0;	/* total size of files to process */
+		long bytesDone = 0;	/* total size of files processed */
+
+		for (int i=0; i < inFile.length; i++) 
+			totalBytes += inFile[i].length();
+
+		ES60Detector detector = new ES60Detector();
+		detector.setThreads(0);
+		List<Job> waiting = new ArrayList<Job>();	/* files read before the ping number is known */
+		boolean detected = false;
+		int pingNo = 0;
+		int attempted = 0;	/* number of files found */
+
+		openJournal(outdir, false);
+		try {
+			for (int i=0; i < inFile.length; i++) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				File outfile = getOutputFile(inFile[i], outdir, affix);
+				if (outfile == null)
+					continue;
+				if (!inFile[i].isFile()) {
+					error("Can't find file: " + inFile[i]);
+					continue;
+				}
+
+				/* resuming, the journal gives the ping number of the first file */
+				ES60Journal.Entry entry = journal__.getEntry(inFile[i], outfile, -1);
+				if (attempted++ == 0 && entry != null) {
+					closeJournal(false);
+					process(entry.getStartPing(), inFile, outdir, affix);
+					return true;
+				}
+
+				String filename = inFile[i].getName();
+				long inLength = inFile[i].length();
+				Job job = new Job(inFile[i], outfile, pingNo, bytesDone, totalBytes);
+				try {
+					job.out_ = new ES60Writer(outfile);
+				} catch (IOException ioe) {
+					error("Could not create file " + outfile.getPath());
+					continue;
+				}
+				if (!detected)
+					waiting.add(job);
+
+				try {
+					ES60File esFile = new ES60File(inFile[i]);
+					esFile.setMapped(true);
+					esFile.open();
+					try {
+						while (esFile.hasNext()) {
+							if (Thread.interrupted())
+								throw new InterruptedException();
+
+							ES60Record rec = esFile.read();
+
+							/* read again once the ping number is detected */
+							if (!detected) {
+								if (rec instanceof ES60RAW && 
+										(!detector.add((ES60RAW)rec) || overdue(detector))) {
+									int first = detected(detector);
+									if (first < 0) {
+										abandon(waiting);
+										closeJournal(false);
+										if (gui__ != null)
+											gui__.done();
+										return false;
+									}
+									processed += release(first, waiting, esFile.getFilePointer());
+									detected = true;
+								}
+								continue;
+							}
+
+							if (rec instanceof ES60RAW && adjust(job, (ES60RAW)rec) && job.pingNo_ % 100 == 0)
+								update(filename + " pings: " + job.startPing_ + "-" + job.pingNo_ + " to " + outfile.getName(), 
+										job.out_.getPosition() * 100 / inLength,
+										(bytesDone + job.out_.getPosition()) * 100 / totalBytes,
+										false);
+							job.out_.write(rec, esFile.swap());
+						}
+						if (esFile.isTruncated())
+							update(filename + " incomplete datagram at " + esFile.getTruncated() + " not copied", 
+									100L, (bytesDone + inLength) * 100 / totalBytes, true);
+					} finally {
+						esFile.close();
+					}
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+				}
+				bytesDone += inLength;
+
+				/* finished this file */
+				if (detected) {
+					job.out_.close();
+					finished(job);
+					processed++;
+					pingNo = job.pingNo_ + 1;
+				}
+			} // for i < inFile.length
+
+			/* the files ran out before the detector had enough pings */
+			if (!detected && !waiting.isEmpty()) {
+				int first = detected(detector);
+				if (first < 0)
+					abandon(waiting);
+				else {
+					Job last = waiting.get(waiting.size() - 1);
+					processed += release(first, waiting, Long.MAX_VALUE);
+					last.out_.close();
+					finished(last);
+					processed++;
+				}
+			}
+
+		} catch (InterruptedException ie) {
+			error("Processing interrupted");
+			attempted = -1;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			attempted = -1;
+		}
+		closeJournal(processed == attempted);
+
+		/* all done */
+		update("Processed " + processed + " files", 100L, 100L, true);
+		if (gui__ != null)
+			gui__.done();
+		return processed == attempted;
+	}
+
+	/**
+	 *  Detect the ping number of the first ping of a stream of datagrams
+	 *  and correct it, writing corrected datagrams to another stream.
+	 *
+	 *  As for detect(File[], File, String) the first ping is detected from
+	 *  the first pings of the stream, but as it cannot be read again the
+	 *  records read meanwhile are held in memory, up to holdBytes__ of them.
+	 *  Then they and the rest of the stream are corrected as in 
+	 *  process(int, InputStream, OutputStream).
+	 *  Nothing is written if the triangle wave is not found.
+	 *  Both streams are closed when the input is exhausted.
+	 *
+	 *  @param in Stream to read datagrams from.
+	 *  @param out Stream to write corrected datagrams to.
+	 *  @return Ping number following the last ping of the stream,
+	 *          or -1 if the triangle wave was not found.
+	 **/
+	public static int detect(InputStream in, OutputStream out) {
+		ES60File esFile = new ES60File(in);
+		esFile.setBufferSize(STREAM_BUFFER, STREAM_BUFFER);
+		Job job = new Job(null, null, 0, 0L, 0L);
+		job.out_ = new ES60Writer(Channels.newChannel(out));
+
+		ES60Detector detector = new ES60Detector();
+		detector.setThreads(0);
+		List<Job> waiting = new ArrayList<Job>();
+		waiting.add(job);
+		List<Held> held = new ArrayList<Held>();
+		long heldBytes = 0;
+		boolean detected = false;
+
+		try {
+			try {
+				try {
+					while (esFile.hasNext()) {
+						ES60Record rec = esFile.read();
+
+						/* hold the record until the ping number is detected */
+						if (!detected) {
+							held.add(new Held(rec, esFile.swap(), job));
+							heldBytes += rec.getLength();
+							if ((rec instanceof ES60RAW && 
+									(!detector.add((ES60RAW)rec) || overdue(detector))) ||
+									heldBytes >= holdBytes__) {
+								int first = detected(detector);
+								if (first < 0)
+									return -1;
+								release(first, waiting, held);
+								detected = true;
+							}
+							continue;
+						}
+
+						if (rec instanceof ES60RAW && adjust(job, (ES60RAW)rec) && job.pingNo_ % 100 == 0)
+							update("stdin pings: " + job.startPing_ + "-" + job.pingNo_ + " " + 
+									(job.out_.getPosition() >> 20) + " MB", -1, -1, false);
+						job.out_.write(rec, esFile.swap());
+					}
+					if (esFile.isTruncated())
+						error("Incomplete datagram at end of input not copied");
+				} catch (EOFException eof) {
+					error("Incomplete datagram at end of input not copied");
+				}
+
+				/* the stream ran out before the detector had enough pings */
+				if (!detected) {
+					int first = detected(detector);
+					if (first < 0)
+						return -1;
+					release(first, waiting, held);
+				}
+			} finally {
+				try {
+					job.out_.close();
+				} finally {
+					esFile.close();
+				}
+			}
+			update("stdin pings: " + job.startPing_ + "-" + job.pingNo_ + " " + (job.out_.getPosition() >> 20) + " MB", -1, -1, true);
+			return job.pingNo_ + 1;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return -1;
+	}
+
+	/**
+	 *  Detect the ping number of the first ping of a sequence of files,
+	 *  reading only as many pings as the detector needs.
+	 *
+	 *  @param inFile Files to process, in order.
+	 *  @return Ping number of the first ping of the first file, 
+	 *          or -1 if the triangle wave was not found.
+	 **/
+	public static int detectPing(File[] inFile) {
+		ES60Detector detector = new ES60Detector();
+		detector.setThreads(0);
+		try {
+			files:
+			for (int i = 0; i < inFile.length; i++) {
+				if (!inFile[i].isFile() || !inFile[i].getName().toLowerCase().endsWith(".raw"))
+					continue;
+
+				ES60File esFile = new ES60File(inFile[i]);
+				esFile.setMapped(true);
+				esFile.open();
+				try {
+					while (esFile.hasNext()) {
+						ES60Record rec = esFile.read();
+						if (rec instanceof ES60RAW && !detector.add((ES60RAW)rec))
+							break files;
+					}
+				} finally {
+					esFile.close();
+				}
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return detected(detector);
+	}
+
+	/**
+	 *  Process input files in parallel.
+	 *
+	 *  The ping number of the first ping of each file depends on the number
+	 *  of pings in the files before it. These are counted first by scanning
+	 *  the datagram headers of each file (see countPings()), then the files are
+	 *  corrected on a pool of threads. The output is the same as for process().
+	 *  If a file cannot be scanned the files are processed sequentially.
+	 *  If chunkBytes__ is set each file is also split into chunks (see split())
+	 *  which are corrected on the pool and written into a preallocated output
+	 *  file, so a single large file is corrected on all threads.
+	 *  Files are journaled as in process().
+	 *
+	 *  @param pingNo Ping number of first ping of first file in triangle wave sequence.
+	 *  @param inFile Files to process, in order (ping number carries through)
+	 *  @param outdir Directory to write output files to. If null current directory is used.
+	 *  @param affix  String to append to output filename prior to .raw extension.
+	 *  @param threads Number of files to correct at once.
+	 **/
+	public static void process(int pingNo, File[] inFile, File outdir, String affix, int threads) {
+
+		int firstPing = pingNo;	/* ping number of first ping of first file */
+		long totalBytes = 0;	/* total size of files to process */
+		for (int i=0; i < inFile.length; i++) 
+			totalBytes += inFile[i].length();
+
+		/* count pings to find the first ping of each file */
+		final List<Job> jobs = new ArrayList<Job>();
+		List<Job> split = new ArrayList<Job>();	/* files split into chunks */
+		long bytesBefore = 0;
+		int attempted = 0;	/* number of files found */
+		int skipped = 0;	/* number of files finished before an interruption */
+		openJournal(outdir, true);
+		try {
+			for (int i=0; i < inFile.length; i++) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				File outfile = getOutputFile(inFile[i], outdir, affix);
+				if (outfile == null)
+					continue;
+
+				if (inFile[i].isFile()) {
+					attempted++;
+					Job job = new Job(inFile[i], outfile, pingNo, bytesBefore, totalBytes);
+
+					/* skip files finished before an interruption */
+					ES60Journal.Entry entry = journaled(job);
+					if (entry != null) {
+						skipped++;
+						bytesBefore += inFile[i].length();
+						pingNo = entry.getEndPing() + 1;
+						continue;
+					}
+
+					try {
+						if (chunkBytes__ > 0) {
+							/* split the file and create the output file for the chunks to write to */
+							List<Job> chunks = split(job, chunkBytes__);
+							long end = chunks.get(chunks.size() - 1).end_;
+							RandomAccessFile out = new RandomAccessFile(outfile, "rw");
+							try {
+								out.setLength(end);
+							} finally {
+								out.close();
+							}
+							if (end < inFile[i].length())
+								update(inFile[i].getName() + " incomplete datagram at " + end + " not copied", 
+										0L, bytesBefore * 100 / totalBytes, true);
+							jobs.addAll(chunks);
+							split.add(job);
+							pingNo = job.pingNo_ + 1;
+						} else {
+							pingNo = countPings(pingNo, inFile[i]) + 1;
+							jobs.add(job);
+						}
+					} catch (IOException ioe) {
+						error(inFile[i].getName() + ": " + ioe.getMessage() + " - processing files sequentially");
+						closeJournal(false);
+						process(firstPing, inFile, outdir, affix);
+						return;
+					}
+					bytesBefore += inFile[i].length();
+				} else
+					error("Can't find file: " + inFile[i]);
+			}
+		} catch (InterruptedException ie) {
+			error("Processing interrupted");
+			closeJournal(false);
+			if (gui__ != null)
+				gui__.done();
+			return;
+		}
+
+		/* correct files */
+		final AtomicInteger processed = new AtomicInteger(skipped);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (final Job job : jobs)
+			results.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					try {
+						if (patch__)
+							patch(job);
+						else
+							correct(job);
+						if (!job.isChunk())
+							processed.incrementAndGet();
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+					return null;
+				}
+			}));
+		pool.shutdown();
+		try {
+			for (Future<?> result : results)
+				result.get();
+		} catch (InterruptedException ie) {
+			pool.shutdownNow();
+			error("Processing interrupted");
+			attempted = -1;
+		} catch (ExecutionException ee) {
+			pool.shutdownNow();
+			if (ee.getCause() instanceof InterruptedException)
+				error("Processing interrupted");
+			else
+				ee.getCause().printStackTrace();
+			attempted = -1;
+		}
+
+		for (Job job : split)
+			if (job.chunks_.get() == 0)
+				processed.incrementAndGet();
+		closeJournal(processed.get() == attempted);
+
+		/* all done */
+		update("Processed " + processed.get() + " files", 100L, 100L, true);
+		if (gui__ != null)
+			gui__.done();
+	}
+
+	/* ---------- Protected Static Methods ---------- */
+
+	/**
+	 *  Returns the output file for an input file, or null if the input file
+	 *  should be skipped.
+	 *
+	 *  @param inFile Input .raw file.
+	 *  @param outdir Directory to write output files to. If null current directory is used.
+	 *  @param affix  String to append to output filename prior to .raw extension.
+	 *  @return Output file, or null if the input is not a .raw file.
+	 *  @throws InterruptedException if the output file is the input file.
+	 **/
+	protected static File getOutputFile(File inFile, File outdir, String affix)
+	throws InterruptedException {
+		/* check filename ends with .raw */
+		String filename = inFile.getName();
+		if (!filename.toLowerCase().endsWith(".raw")) {
+			error("Filename does not end in .raw - skipped: " + filename);
+			return null;
+		}
+
+		/* create output file */
+		String outname = filename.substring(0, filename.length() - 4) + affix + ".raw";
+
+		File outfile = new File(outdir, outname);
+
+		if (outfile.equals(inFile)) {
+			error("Output file is the same as input - aborting: " + inFile.getPath());
+			throw new InterruptedException("Output file is the same as input");
+		}
+		return outfile;
+	}
+
+	/**
+	 *  Correct a file by reading and decoding each datagram, correcting
+	 *  RAW0 datagrams and writing them to the output file.
+	 *  If the job is a chunk of a file only the datagrams from job.start_ to
+	 *  job.end_ are corrected, and written at the same position in the 
+	 *  output file, which must already exist.
+	 *  job.pingNo_ is updated as pings are read, so on return, or if an 
+	 *  IOException is thrown, it holds the ping number reached.
+	 *
+	 *  @param job File to correct.
+	 *  @throws IOException if the file cannot be read, or the output created or written.
+	 *  @throws InterruptedException if processing is interrupted.
+	 **/
+	protected static void correct(Job job)
+	throws IOException, InterruptedException {
+		String filename = job.inFile_.getName();
+		String outname = job.outFile_.getName();
+
+		/* input file */
+		long inLength = job.inFile_.length();
+		ES60File esFile = new ES60File(job.inFile_);
+		esFile.setMapped(true);
+		esFile.open();
+		if (job.start_ > 0)
+			esFile.seek(job.start_);
+
+		/* output file */
+		RandomAccessFile chunk = null;
+		ES60Writer out = null;
+		try {
+			if (job.isChunk()) {
+				chunk = new RandomAccessFile(job.outFile_, "rw");
+				FileChannel channel = chunk.getChannel();
+				channel.position(job.start_);
+				out = new ES60Writer(channel);
+			} else
+				out = new ES60Writer(job.outFile_);
+		} catch (IOException ioe) {
+			if (chunk != null)
+				chunk.close();
+			esFile.close();
+			throw new IOException("Could not create file " + job.outFile_.getPath(), ioe);
+		}
+
+		try {
+			/* if a second record appears for any channel increment ping number */
+			int channelmask = job.channelmask_;
+
+			while (esFile.getFilePointer() < job.end_ && esFile.hasNext()) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				/* get next record from file */
+				ES60Record rec = esFile.read();
+				if (rec instanceof ES60RAW) {
+					ES60RAW rrec = (ES60RAW)rec;
+
+					/* check if this pingNo has been used for this channel */
+					int channelflag = 1 << rrec.getChannel();
+					if ((channelmask & channelflag) == 0)
+						channelmask |= channelflag;
+					else {
+						job.pingNo_++;
+						channelmask = channelflag;
+						if (job.pingNo_ % 100 == 0)
+							update(filename + " pings: " + job.startPing_ + "-" + job.pingNo_ + " to " + outname, 
+									(job.start_ + out.getPosition()) * 100 / inLength,
+									(job.bytesDone_ + out.getPosition()) * 100 / job.totalBytes_,
+									false);
+					}
+
+					int adj = wave(job.pingNo_);
+
+					/* process this record */
+					if (adj != 0)
+						rrec.es60adjust(adj);
+				}
+
+				/* write record to output file */
+				out.write(rec, esFile.swap());
+			} // while (esFile.hasNext())
+			if (esFile.isTruncated())
+				update(filename + " incomplete datagram at " + esFile.getTruncated() + " not copied", 
+						(job.start_ + out.getPosition()) * 100 / inLength,
+						(job.bytesDone_ + out.getPosition()) * 100 / job.totalBytes_,
+						true);
+		} finally {
+			/* flush what was written, even if interrupted */
+			try {
+				out.close();
+			} finally {
+				try {
+					if (chunk != null)
+						chunk.close();
+				} finally {
+					esFile.close();
+				}
+			}
+		}
+		if (!job.isChunk())
+			job.crc_ = out.getCRC();
+
+		/* finished this file */
+		finished(job);
+	}
+
+	/**
+	 *  Correct a file by copying it and then patching the power samples
+	 *  of each RAW0 datagram in the copy.
+	 *
+	 *  Only the power samples change when a file is corrected, so rather
+	 *  than decoding and writing every datagram the file is copied with
+	 *  FileChannel.transferTo(), the copy is memory mapped and only the
+	 *  length, type, channel and sample count of each datagram are read 
+	 *  to find the power samples to correct.
+	 *  Ping numbers are counted as in correct() and the output is the same.
+	 *  If the job is a chunk of a file only the bytes from job.start_ to
+	 *  job.end_ are copied and patched, the output file must already exist.
+	 *
+	 *  @param job File to correct.
+	 *  @throws IOException if the output cannot be created, or the file cannot be copied or is corrupt.
+	 *  @throws InterruptedException if processing is interrupted.
+	 **/
+	protected static void patch(Job job)
+	throws IOException, InterruptedException {
+		String filename = job.inFile_.getName();
+		String outname = job.outFile_.getName();
+
+		/* byte order */
+		ES60File esFile = new ES60File(job.inFile_);
+		esFile.open();
+		ByteOrder order = esFile.getByteOrder();
+		esFile.close();
+
+		RandomAccessFile in = new RandomAccessFile(job.inFile_, "r");
+		RandomAccessFile out = null;
+		try {
+			out = new RandomAccessFile(job.outFile_, "rw");
+		} catch (IOException ioe) {
+			in.close();
+			throw new IOException("Could not create file " + job.outFile_.getPath(), ioe);
+		}
+		try {
+			/* copy */
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			long length = inChannel.size();
+			if (job.isChunk()) {
+				long end = Math.min(job.end_, length);
+				inChannel.position(job.start_);
+				for (long pos = job.start_; pos < end; )
+					pos += outChannel.transferFrom(inChannel, pos, end - pos);
+			} else {
+				outChannel.truncate(0);
+				long copied = 0;
+				while (copied < length)
+					copied += inChannel.transferTo(copied, length - copied, outChannel);
+			}
+
+			/* patch */
+			ES60Scanner scan = new ES60Scanner(outChannel, order, true, job.start_, job.end_);
+			int channelmask = job.channelmask_;
+			while (scan.next()) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				if (scan.getType() == ES60Record.RAW0) {
+					/* check if this pingNo has been used for this channel */
+					int channelflag = 1 << scan.getChannel();
+					if ((channelmask & channelflag) == 0)
+						channelmask |= channelflag;
+					else {
+						job.pingNo_++;
+						channelmask = channelflag;
+						if (job.pingNo_ % 100 == 0)
+							update(filename + " pings: " + job.startPing_ + "-" + job.pingNo_ + " to " + outname, 
+									scan.getPosition() * 100 / length,
+									(job.bytesDone_ + scan.getPosition() - job.start_) * 100 / job.totalBytes_,
+									false);
+					}
+
+					int adj = wave(job.pingNo_);
+
+					/* patch this datagram */
+					if (adj != 0)
+						patch(scan, adj);
+				}
+			}
+			scan.close();
+
+			long pos = scan.getPosition();
+			if (scan.isTruncated() && !job.isChunk()) {
+				outChannel.truncate(pos);
+				update(filename + " incomplete datagram at " + pos + " not copied", 
+						pos * 100 / length,
+						(job.bytesDone_ + pos) * 100 / job.totalBytes_,
+						true);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+
+		finished(job);
+	}
+
+	/**
+	 *  Write a patch file for a file rather than correcting it.
+	 *  Only the datagram headers are read, to count the pings in the file,
+	 *  and the patch written is a few dozen bytes.
+	 *
+	 *  @param job File to write a patch for, job.outFile_ is not used.
+	 *  @throws IOException if the file cannot be read or the patch written.
+	 *  @see ES60PatchFile
+	 **/
+	protected static void writePatch(Job job)
+	throws IOException {
+		int last = countPings(job.pingNo_, job.inFile_);
+		ES60PatchFile patch = new ES60PatchFile(job.inFile_, job.pingNo_, last - job.pingNo_ + 1);
+		patch.save();
+		job.outFile_ = patch.getFile();
+		job.pingNo_ = last;
+		finished(job);
+	}
+
+	/**
+	 *  Output a usage message and exit.
+	 *  @param status Exit status.
+	 **/
+	protected static void usage(int status) {
+		System.err.println("usage: java ES60Adjust [-patch | -adj] [-threads n] [-chunk mb] ping file.raw...");
+		System.err.println("       java ES60Adjust -detect [-validate] [-patch | -adj] [-threads n] [-chunk mb] file.raw...");
+		System.err.println("       java ES60Adjust -apply file.raw...");
+		System.err.println("    -detect - find the initial ping number from the first pings while correcting");
+		System.err.println("    -validate - check the coarse search of -detect against every candidate");
+		System.err.println("    -patch - copy each file then correct the power samples in place");
+		System.err.println("    -adj - write a patch file.raw.adj for each file instead of a corrected copy");
+		System.err.println("    -apply - write corrected copies of files from their patch files");
+		System.err.println("    -threads n - correct n files at once (0 - one per processor)");
+		System.err.println("    -chunk mb - split files into chunks of mb megabytes corrected in parallel");
+		System.err.println("    ping - initial ping number (non-negative integer)");
+		System.err.println("    file.raw - one or more ES60 .raw files, or - to correct stdin to stdout");
+		System.exit(status);
+	}
+
+	/**
+	 *  Returns standard output for writing corrected datagrams to, and
+	 *  sends status messages and anything else written to System.out,
+	 *  eg by ES60RAW.parse(), to standard error instead.
+	 *  @return Standard output.
+	 **/
+	protected static OutputStream stream() {
+		OutputStream out = new FileOutputStream(FileDescriptor.out);
+		System.setOut(System.err);
+		status__ = System.err;
+		return out;
+	}
+
+	/**
+	 *  Detect the ping number of the first ping from the pings collected
+	 *  by a detector, and report it.
+	 *
+	 *  @param detector Detector holding the first pings.
+	 *  @return Ping number of the first ping, or -1 if the triangle wave was not found.
+	 **/
+	protected static int detected(ES60Detector detector) {
+		detector.setValidate(validate__);
+		detector.detect();
+		if (validate__) {
+			int candidates = 0;
+			for (int channel = 0; channel < ES60Detector.MAX_CHANNELS; channel++)
+				if (detector.getResult(channel) != null)
+					candidates = Math.max(candidates, detector.getCandidates(channel));
+			update("Coarse search calculated up to " + candidates + " of " + WAVE + " candidates, " +
+					(detector.getMismatches() == 0 ? "same fit as every candidate" : 
+						detector.getMismatches() + " channels differ"), -1, -1, true);
+		}
+		ES60Detector.Result best = detector.getBest();
+		if (best == null) {
+			StringBuffer message = new StringBuffer("Triangle wave not detected in " + detector.getPings() + " pings -");
+			for (int channel = 0; channel < ES60Detector.MAX_CHANNELS; channel++) {
+				ES60Detector.Result result = detector.getResult(channel);
+				if (result != null)
+					message.append(" [").append(channel).append("] ").append(ES60Detector.STATUS[result.getStatus(-1)]);
+			}
+			error(message.toString());
+			return -1;
+		}
+		update("First ping " + best.getInitial() + " detected from " + detector.getPings() + " pings", -1, -1, true);
+		return best.getInitial();
+	}
+
+	/**
+	 *  Has a channel so many more pings than the detector needs that the
+	 *  first ping should be detected without waiting for the others?
+	 *  @param detector Detector collecting the first pings.
+	 *  @return true if any channel has HOLD_PINGS times skip plus search pings.
+	 **/
+	protected static boolean overdue(ES60Detector detector) {
+		return detector.getPingTotal() >= HOLD_PINGS * (detector.getSkip() + detector.getSearch());
+	}
+
+	/**
+	 *  Read again, correct and write the files read while the ping number
+	 *  was detected. The outputs of the files before the last are closed.
+	 *
+	 *  @param pingNo Ping number of the first ping of the first file.
+	 *  @param waiting Files read so far, in order. Cleared on return.
+	 *  @param end File offset the last file was read to.
+	 *  @return Number of files finished.
+	 *  @throws IOException if a file cannot be read or written.
+	 *  @throws InterruptedException if processing is interrupted.
+	 **/
+	protected static int release(int pingNo, List<Job> waiting, long end)
+	throws IOException, InterruptedException {
+		int finished = 0;
+		for (int i = 0; i < waiting.size(); i++) {
+			Job job = waiting.get(i);
+			job.startPing_ = job.pingNo_ = pingNo;
+			long stop = i < waiting.size() - 1 ? Long.MAX_VALUE : end;
+			ES60File esFile = new ES60File(job.inFile_);
+			esFile.setMapped(true);
+			esFile.open();
+			try {
+				while (esFile.getFilePointer() < stop && esFile.hasNext()) {
+					if (Thread.interrupted())
+						throw new InterruptedException();
+
+					ES60Record rec = esFile.read();
+					if (rec instanceof ES60RAW)
+						adjust(job, (ES60RAW)rec);
+					job.out_.write(rec, esFile.swap());
+				}
+			} finally {
+				esFile.close();
+			}
+			if (i < waiting.size() - 1) {
+				job.out_.close();
+				finished(job);
+				finished++;
+				pingNo = job.pingNo_ + 1;
+			}
+		}
+		waiting.clear();
+		return finished;
+	}
+
+	/**
+	 *  Correct and write the records held while the ping number was detected.
+	 *  The outputs of the jobs before the last are closed.
+	 *
+	 *  @param pingNo Ping number of the first ping of the first file.
+	 *  @param waiting Files read so far, in order. Cleared on return.
+	 *  @param held Records read so far, in order. Cleared on return.
+	 *  @return Number of files finished.
+	 *  @throws IOException if a file cannot be written.
+	 **/
+	protected static int release(int pingNo, List<Job> waiting, List<Held> held)
+	throws IOException {
+		int finished = 0;
+		int next = 0;	/* next record of held to write */
+		for (int i = 0; i < waiting.size(); i++) {
+			Job job = waiting.get(i);
+			job.startPing_ = job.pingNo_ = pingNo;
+			for (; next < held.size() && held.get(next).job_ == job; next++) {
+				Held h = held.get(next);
+				if (h.rec_ instanceof ES60RAW)
+					adjust(job, (ES60RAW)h.rec_);
+				job.out_.write(h.rec_, h.swap_);
+			}
+			if (i < waiting.size() - 1) {
+				job.out_.close();
+				finished(job);
+				finished++;
+				pingNo = job.pingNo_ + 1;
+			}
+		}
+		waiting.clear();
+		held.clear();
+		return finished;
+	}
+
+	/**
+	 *  Close and delete the outputs of files which were read but not corrected.
+	 *  @param waiting Files read.
+	 **/
+	protected static void abandon(List<Job> waiting) {
+		for (Job job : waiting) {
+			try {
+				job.out_.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			if (job.outFile_ != null && !job.outFile_.delete())
+				error("Could not delete " + job.outFile_.getPath());
+		}
+		waiting.clear();
+	}
+
+	/**
+	 *  Correct the next RAW0 record of a job read in order,
+	 *  counting ping numbers as correct() does.
+	 *
+	 *  @param job File being corrected, job.pingNo_ and job.channelmask_ are updated.
+	 *  @param rrec The record.
+	 *  @return true if the record starts a new ping.
+	 **/
+	protected static boolean adjust(Job job, ES60RAW rrec) {
+		boolean newPing = false;
+
+		/* check if this pingNo has been used for this channel */
+		int channelflag = 1 << rrec.getChannel();
+		if ((job.channelmask_ & channelflag) == 0)
+			job.channelmask_ |= channelflag;
+		else {
+			job.pingNo_++;
+			job.channelmask_ = channelflag;
+			newPing = true;
+		}
+
+		int adj = wave(job.pingNo_);
+		if (adj != 0)
+			rrec.es60adjust(adj);
+		return newPing;
+	}
+
+	/**
+	 *  Write corrected copies of files from their patch files.
+	 *
+	 *  Each file is read through an ES60AdjustedFile applying its patch
+	 *  and the corrected records are written to the output file, 
+	 *  which is the same as the one ES60Adjust would have written.
+	 *  Files without an up to date patch file are skipped.
+	 *
+	 *  @param inFile Files to correct.
+	 *  @param outdir Directory to write output files to. If null current directory is used.
+	 *  @param affix  String to append to output filename prior to .raw extension.
+	 **/
+	public static void apply(File[] inFile, File outdir, String affix) {
+		int processed = 0;
+
+		try {
+			for (int i = 0; i < inFile.length; i++) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				File outfile = getOutputFile(inFile[i], outdir, affix);
+				if (outfile == null)
+					continue;
+
+				try {
+					ES60PatchFile patch = new ES60PatchFile(inFile[i]);
+					if (!patch.load()) {
+						error("No patch file for " + inFile[i] + " - skipped");
+						continue;
+					}
+
+					ES60AdjustedFile esFile = new ES60AdjustedFile(patch);
+					esFile.setMapped(true);
+					esFile.open();
+					ES60Writer out = new ES60Writer(outfile);
+					try {
+						while (esFile.hasNext())
+							out.write(esFile.read(), esFile.swap());
+					} finally {
+						out.close();
+						esFile.close();
+					}
+					processed++;
+					update(inFile[i].getName() + " " + patch + " to " + outfile.getName(),
+							100L, (i + 1) * 100L / inFile.length, true);
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+				}
+			}
+		} catch (InterruptedException ie) {
+			error("Processing interrupted");
+		}
+
+		update("Processed " + processed + " files", 100L, 100L, true);
+	}
+
+	/**
+	 *  Report that a file, or a chunk of a file, has been corrected.
+	 *  A file split into chunks is reported when its last chunk is finished.
+	 *
+	 *  @param job The file or chunk corrected.
+	 **/
+	protected static void finished(Job job) {
+		if (job.isChunk()) {
+			job = job.file_;
+			if (job.chunks_.decrementAndGet() > 0)
+				return;
+		}
+		update(job.inFile_.getName() + " pings: " + job.startPing_ + "-" + job.pingNo_ + " to " + job.outFile_.getName(), 
+				100L,
+				(job.bytesDone_ + job.inFile_.length()) * 100 / job.totalBytes_,
+				true);
+
+		ES60Journal journal = journal__;
+		if (journal != null)
+			try {
+				/* a copied and patched file or one written in chunks is read once more */
+				long crc = job.crc_;
+				if (job.out_ != null)
+					crc = job.out_.getCRC();
+				else if (crc < 0)
+					crc = ES60Journal.crc(job.outFile_);
+				journal.record(job.inFile_, job.outFile_, job.startPing_, job.pingNo_, crc);
+			} catch (IOException ioe) {
+				error("Could not record " + job.outFile_.getName() + " in " + journal.getFile() + ": " + ioe.getMessage());
+			}
+	}
+
+	/**
+	 *  Open the journal in the output directory, see ES60Journal.
+	 *  Files already recorded in it are skipped by process().
+	 *
+	 *  @param outdir Directory to write output files to. If null current directory is used.
+	 *  @param report Report the number of files finished?
+	 **/
+	protected static void openJournal(File outdir, boolean report) {
+		journal__ = new ES60Journal(outdir);
+		try {
+			int entries = journal__.load();
+			if (entries > 0 && report)
+				update("Resuming from " + journal__.getFile() + ", " + entries + " files finished", -1, -1, true);
+		} catch (IOException ioe) {
+			error("Could not read " + journal__.getFile() + ": " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 *  Close the journal, deleting it if all the files have been processed.
+	 *  @param complete Have all the files been processed?
+	 **/
+	protected static void closeJournal(boolean complete) {
+		if (journal__ != null && complete && !journal__.delete())
+			error("Could not delete " + journal__.getFile());
+		journal__ = null;
+	}
+
+	/**
+	 *  Returns the journal entry of a file which has already been processed.
+	 *
+	 *  @param job File to process.
+	 *  @return Entry, or null if the file must be processed.
+	 **/
+	protected static ES60Journal.Entry journaled(Job job) {
+		if (journal__ == null)
+			return null;
+		ES60Journal.Entry entry = journal__.getEntry(job.inFile_, job.outFile_, job.startPing_);
+		if (entry != null)
+			update(job.inFile_.getName() + " pings: " + entry.getStartPing() + "-" + entry.getEndPing() + 
+					" already in " + job.outFile_.getName(), 
+					100L,
+					(job.bytesDone_ + job.inFile_.length()) * 100 / job.totalBytes_,
+					true);
+		return entry;
+	}
+
+	/**
+	 *  Correct the power samples of the RAW0 datagram at the current position
+	 *  of an ES60Scanner, as ES60RAW.es60adjust(int) does for a record.
+	 *
+	 *  @param scan Scanner positioned at a RAW0 datagram, mapped for writing.
+	 *  @param adj Amount to subtract from each power sample.
+	 **/
+	protected static void patch(ES60Scanner scan, int adj) {
+		if (scan.getContentLength() < ES60RAW.HEADER) {
+			System.err.println("ES60RAW record too small");
+			return;
+		}
+		ByteBuffer buffer = scan.getBuffer();
+		int content = scan.getContentIndex();
+		int count = buffer.getInt(content + 68);
+		if (count < 0 || scan.getContentLength() < ES60RAW.HEADER + 2 * count)
+			System.err.println("ES60RAW insufficient data in record");
+		else
+			ES60RAW.es60adjust(buffer, content + ES60RAW.HEADER, count, adj);
+	}
+
+	/**
+	 *  Count the pings in a file, reading only the datagram headers,
+	 *  using the same rule as correct(): the ping number is incremented
+	 *  whenever a channel appears a second time.
+	 *
+	 *  @param pingNo Ping number of the first ping in the file.
+	 *  @return Ping number of the last ping in the file.
+	 *  @throws IOException if the file cannot be read or is corrupt.
+	 **/
+	public static int countPings(int pingNo, File inFile)
+	throws IOException {
+		ES60File esFile = new ES60File(inFile);
+		esFile.open();
+		ByteOrder order = esFile.getByteOrder();
+		esFile.close();
+
+		RandomAccessFile in = new RandomAccessFile(inFile, "r");
+		try {
+			ES60Scanner scan = new ES60Scanner(in.getChannel(), order, false);
+			int channelmask = 0;
+			while (scan.next()) {
+				if (scan.getType() == ES60Record.RAW0) {
+					int channelflag = 1 << scan.getChannel();
+					if ((channelmask & channelflag) == 0)
+						channelmask |= channelflag;
+					else {
+						pingNo++;
+						channelmask = channelflag;
+					}
+				}
+			}
+			scan.close();
+		} finally {
+			in.close();
+		}
+		return pingNo;
+	}
+
+	/**
+	 *  Split a file into chunks which can be corrected independently.
+	 *
+	 *  The datagram headers of the file are scanned, as for countPings(),
+	 *  and a new chunk is started at the first datagram after every 
+	 *  chunkBytes bytes, with the ping number and channels seen at that point.
+	 *  On return job.pingNo_ is the ping number of the last ping in the file.
+	 *
+	 *  @param job The whole file.
+	 *  @param chunkBytes Approximate size of each chunk.
+	 *  @return The chunks, in file order. The last chunk ends at the end of
+	 *          the last complete datagram in the file.
+	 *  @throws IOException if the file cannot be read or is corrupt.
+	 **/
+	protected static List<Job> split(Job job, long chunkBytes)
+	throws IOException {
+		ES60File esFile = new ES60File(job.inFile_);
+		esFile.open();
+		ByteOrder order = esFile.getByteOrder();
+		esFile.close();
+
+		List<Job> chunks = new ArrayList<Job>();
+		RandomAccessFile in = new RandomAccessFile(job.inFile_, "r");
+		try {
+			ES60Scanner scan = new ES60Scanner(in.getChannel(), order, false);
+			int pingNo = job.startPing_;
+			int channelmask = 0;
+			Job chunk = new Job(job, 0, pingNo, channelmask);
+			while (scan.next()) {
+				long pos = scan.getPosition();
+				if (pos - chunk.start_ >= chunkBytes) {
+					chunk.end_ = pos;
+					chunks.add(chunk);
+					chunk = new Job(job, pos, pingNo, channelmask);
+				}
+				if (scan.getType() == ES60Record.RAW0) {
+					int channelflag = 1 << scan.getChannel();
+					if ((channelmask & channelflag) == 0)
+						channelmask |= channelflag;
+					else {
+						pingNo++;
+						channelmask = channelflag;
+					}
+				}
+			}
+			scan.close();
+			chunk.end_ = scan.getPosition();
+			chunks.add(chunk);
+			job.pingNo_ = pingNo;
+		} finally {
+			in.close();
+		}
+		job.chunks_ = new AtomicInteger(chunks.size());
+		return chunks;
+	}
 
 	/**
 	 *  Method to handle error messages from process.
@@ -2076,19 +3193,22 @@ public class ES60Adjust extends JComponent {
 
 	/**
 	 *  Update processing status.
-	 *  If no GUI then output is written to System.out.
+	 *  If no GUI then output is written to status__.
 	 *  If a GUI is present the Progress is used to display progress information.
 	 *
 	 *  @param message Message to display.
-	 *  @param pctFile Percent of this file complete.
-	 *  @param pctTotal Percent of total complete.
+	 *  @param pctFile Percent of this file complete, negative if not known.
+	 *  @param pctTotal Percent of total complete, negative if not known.
 	 *  @param finished Have we finished with this file?
 	 */
 	protected static void update(String message, long pctFile, long pctTotal, boolean finished) {
 		if (gui__ == null) {
-			System.out.print("\r" + message + "  " + pctFile + "%  " + pctTotal +"%");
+			if (pctFile < 0 || pctTotal < 0)
+				status__.print("\r" + message);
+			else
+				status__.print("\r" + message + "  " + pctFile + "%  " + pctTotal +"%");
 			if (finished)
-				System.out.println();
+				status__.println();
 
 		} else 
 			gui__.update(message, pctFile, pctTotal, finished);
@@ -0,0 +1,320 @@
+/*
+    ES60AdjustedFile.java  au.csiro.marine.echo.ES60AdjustedFile
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import au.csiro.marine.echo.data.es60.ES60File;
+import au.csiro.marine.echo.data.es60.ES60OffsetIndex;
+import au.csiro.marine.echo.data.es60.ES60RAW;
+import au.csiro.marine.echo.data.es60.ES60Record;
+import au.csiro.marine.echo.data.es60.ES60Scanner;
+
+/**
+    ES60AdjustedFile is an ES60File whose RAW0 records are corrected for the
+    ES60 triangle wave error as they are read, so a file can be used
+    corrected without writing a corrected copy.
+
+    The ping number of the first ping of the file is given, eg from the
+    analysis done by ES60Adjust, and ping numbers are counted as
+    ES60Adjust.correct() counts them.
+    Each RAW0 record read by read(), fetch() or a Spliterator of the file has
+    ES60Adjust.wave() of its ping number passed to ES60RAW.adjust(int), which
+    subtracts it when the power samples are first decoded, summed or written.
+    Records which are only read for their header or position are not touched.
+
+    Records may be read in any order. The ping number of a record is found
+    from the offsets of the datagrams at which the ping number changes,
+    which are found by scanning only the headers of the file as far as
+    the furthest record read (see ES60Scanner).
+    When reading a stream the records must be read in order.
+
+    Alternatively the ping numbers may be given by an ES60PatchFile,
+    which also handles resets of the ping sequence part way through the file.
+
+    If reverse is set the wave is added rather than subtracted,
+    reconstructing the original data from a corrected file.
+
+    readView() returns the data as it is stored in the file.
+
+    @version $Id$
+**/
+public class ES60AdjustedFile extends ES60File {
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  Ping number of the first ping in the file.
+	 **/
+	protected int startPing_;
+
+	/**
+	 *  Patch giving the ping numbers, or null to count from startPing_.
+	 **/
+	protected ES60PatchFile patch_;
+
+	/**
+	 *  Add the wave rather than subtract it?
+	 **/
+	protected boolean reverse_;
+
+	/**
+	 *  Offsets of the RAW0 datagrams which start each ping after the first,
+	 *  as far as the file has been scanned.
+	 **/
+	protected ES60OffsetIndex pings_ = new ES60OffsetIndex();
+
+	/**
+	 *  Scanner used to find pings_, null until needed.
+	 **/
+	protected ES60Scanner scanner_;
+
+	/**
+	 *  Offset of the last datagram scanned, -1 before scanning.
+	 **/
+	protected volatile long scanned_ = -1;
+
+	/**
+	 *  Has the whole file been scanned?
+	 **/
+	protected boolean scanDone_;
+
+	/**
+	 *  Channels seen in the current ping, as far as the file has been
+	 *  scanned or the stream read.
+	 **/
+	protected int channelmask_;
+
+	/**
+	 *  Index of the current ping when reading a stream.
+	 **/
+	protected int streamIndex_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60AdjustedFile for the given File.
+	 *
+	 *  @param rawFile A .raw file containing ES60 datagrams.
+	 *  @param startPing Ping number of the first ping in the file.
+	 **/
+	public ES60AdjustedFile(File rawFile, int startPing) {
+		this(rawFile, null, startPing);
+	}
+
+	/**
+	 *  Create an ES60AdjustedFile for the given File, with the specified survey name.
+	 *
+	 *  @param rawFile A .raw file containing ES60 datagrams.
+	 *  @param survey Name of the survey to use, if null the directory name of rawFile.
+	 *  @param startPing Ping number of the first ping in the file.
+	 **/
+	public ES60AdjustedFile(File rawFile, String survey, int startPing) {
+		super(rawFile, survey);
+		startPing_ = startPing;
+	}
+
+	/**
+	 *  Create an ES60AdjustedFile applying a patch.
+	 *
+	 *  @param patch Patch giving the ping numbers of the file, see ES60PatchFile.load().
+	 **/
+	public ES60AdjustedFile(ES60PatchFile patch) {
+		super(patch.getRawFile());
+		patch_ = patch;
+		startPing_ = patch.getPing(0);
+	}
+
+	/**
+	 *  Create an ES60AdjustedFile reading datagrams from a stream.
+	 *
+	 *  @param in Stream containing ES60 datagrams.
+	 *  @param startPing Ping number of the first ping in the stream.
+	 **/
+	public ES60AdjustedFile(InputStream in, int startPing) {
+		super(in);
+		startPing_ = startPing;
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Schedule the correction of each RAW0 record read.
+	 **/
+	protected void loaded(ES60Record record, boolean nmeaOnly)
+	throws IOException {
+		if (!(record instanceof ES60RAW))
+			return;
+		ES60RAW raw = (ES60RAW)record;
+
+		/* the channel of a stream is still needed to count pings */
+		int ping;
+		if (raFile_ == null)
+			ping = streamPing(raw.getChannel());
+		else if (nmeaOnly)
+			return;
+		else
+			ping = getPing(record.getFilePointer());
+
+		int adj = ES60Adjust.wave(ping);
+		if (adj != 0 && !nmeaOnly)
+			raw.adjust(reverse_ ? -adj : adj);
+	}
+
+	/**
+	 *  Count the ping number of the next RAW0 record in a stream.
+	 *  @param channel Channel of the record.
+	 *  @return Ping number of the record.
+	 **/
+	protected synchronized int streamPing(int channel) {
+		int channelflag = 1 << channel;
+		if ((channelmask_ & channelflag) == 0)
+			channelmask_ |= channelflag;
+		else {
+			streamIndex_++;
+			channelmask_ = channelflag;
+		}
+		return getPingNumber(streamIndex_);
+	}
+
+	/**
+	 *  Returns the ping number of a ping in the file.
+	 *  @param index Index of the ping in the file, counting from 0.
+	 *  @return Ping number in the triangle wave sequence.
+	 **/
+	protected int getPingNumber(int index) {
+		if (patch_ != null)
+			return patch_.getPing(index);
+		return startPing_ + index;
+	}
+
+	/**
+	 *  Scan the file up to and including the datagram at pos,
+	 *  recording where each new ping starts.
+	 *  @param pos File offset of a datagram.
+	 *  @throws IOException if the file cannot be scanned.
+	 **/
+	protected synchronized void scan(long pos)
+	throws IOException {
+		if (scanner_ == null && !scanDone_) {
+			if (scanned_ < 0)
+				scanner_ = new ES60Scanner(raFile_.getChannel(), getByteOrder(), false);
+			else {
+				/* file was closed and reopened, skip the datagram already scanned */
+				scanner_ = new ES60Scanner(raFile_.getChannel(), getByteOrder(), false, scanned_, Long.MAX_VALUE);
+				scanner_.next();
+			}
+		}
+		while (scanned_ < pos && !scanDone_) {
+			if (!scanner_.next()) {
+				scanDone_ = true;
+				scanner_.close();
+				scanner_ = null;
+				break;
+			}
+			scanned_ = scanner_.getPosition();
+			if (scanner_.getType() == ES60Record.RAW0) {
+				int channelflag = 1 << scanner_.getChannel();
+				if ((channelmask_ & channelflag) == 0)
+					channelmask_ |= channelflag;
+				else {
+					pings_.add(scanned_);
+					channelmask_ = channelflag;
+				}
+			}
+		}
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Returns the ping number of the RAW0 datagram at pos.
+	 *
+	 *  @param pos File offset of a RAW0 datagram.
+	 *  @return Ping number of the datagram.
+	 *  @throws IOException if the file is a stream or cannot be scanned.
+	 **/
+	public int getPing(long pos)
+	throws IOException {
+		if (raFile_ == null)
+			throw new IOException("Cannot find the ping number of a datagram in a stream");
+		if (pos > scanned_)
+			scan(pos);
+
+		/* number of pings started at or before pos */
+		int low = 0;
+		int high = pings_.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (pings_.get(mid) <= pos)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return getPingNumber(low);
+	}
+
+	/**
+	 *  Returns the ping number of the first ping in the file.
+	 *  @return Starting ping number.
+	 **/
+	public int getStartPing() {
+		return startPing_;
+	}
+
+	/**
+	 *  Returns the ping number of the first ping of the file following this one,
+	 *  as passed to ES60Adjust.process() for the next file.
+	 *  The whole file is scanned.
+	 *
+	 *  @return Ping number following the last ping in the file.
+	 *  @throws IOException if the file is a stream or cannot be scanned.
+	 **/
+	public int getNextPing()
+	throws IOException {
+		return getPing(Long.MAX_VALUE) + 1;
+	}
+
+	/**
+	 *  Add the wave to the data rather than subtract it,
+	 *  to reconstruct the original data from a corrected file.
+	 *  @param reverse Reverse the correction?
+	 **/
+	public void setReverse(boolean reverse) {
+		reverse_ = reverse;
+	}
+
+	/**
+	 *  Is the wave added to the data rather than subtracted?
+	 *  @return true if the correction is reversed.
+	 **/
+	public boolean isReverse() {
+		return reverse_;
+	}
+
+	public synchronized void close()
+	throws IOException {
+		if (scanner_ != null) {
+			scanner_.close();
+			scanner_ = null;
+		}
+		super.close();
+	}
+}
+
+/*
+    Create in me a clean heart, O God,
+    and renew a right spirit within me.
+            Psalm 51:10
+*/
@@ -0,0 +1,1452 @@
+/*
+    ES60Detector.java  au.csiro.marine.echo.ES60Detector
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import au.csiro.marine.echo.data.es60.ES60RAW;
+
+/**
+    ES60Detector finds the position in the ES60 triangle wave of the first
+    ping of a sequence of pings, without any user interface.
+
+    The fire pulse of each ping (the sum of samples first to last) is
+    collected for up to search pings of each channel, after skipping the
+    first skip pings, either by passing records to add() as they are read
+    or from data already collected by ES60Adjust.Analyse.
+    detect() then compares the data with each of the WAVE candidate
+    triangle waves as described in ES60Adjust.Analyse.analyse(),
+    and getResult() gives the best fit for each channel.
+    A coarse search skips the candidates which cannot be in the best fit,
+    without changing it, see search().
+
+    @version $Id$
+**/
+public class ES60Detector {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Maximum number of channels we can handle.
+	 *  Must not be greater than the number of bits in a channelmask.
+	 **/
+	public static final int MAX_CHANNELS = 64;
+
+	/**
+	 *  List of supported algorithms for weighting deviations.
+	 **/
+	public static final String[] ALGORITHMS = {"Linear", "Square", "Square root", "Log"};
+
+	/**
+	 *  Result status: the wave was found.
+	 **/
+	public static final int FOUND = 0;
+
+	/**
+	 *  Result status: no wave fits better than a flat mean.
+	 **/
+	public static final int NONE = 1;
+
+	/**
+	 *  Result status: more than one candidate fits equally well.
+	 **/
+	public static final int UNKNOWN = 2;
+
+	/**
+	 *  Result status: the start of the data is too close to a turning point to be reliable.
+	 **/
+	public static final int EDGE_START = 3;
+
+	/**
+	 *  Result status: the end of the data is too close to a turning point to be reliable.
+	 **/
+	public static final int EDGE_END = 4;
+
+	/**
+	 *  Result status: no turning point in the data, which is on the down slope.
+	 **/
+	public static final int DOWN_SLOPE = 5;
+
+	/**
+	 *  Result status: no turning point in the data, which is on the up slope.
+	 **/
+	public static final int UP_SLOPE = 6;
+
+	/**
+	 *  Description of each result status.
+	 **/
+	public static final String[] STATUS = {"Found", "None", "Unknown",
+		"Turning point too close to start of data", "Turning point too close to end of data",
+		"No turning point, down slope", "No turning point, up slope"};
+
+	/**
+	 *  Minimum distance from a turning point for less than half a wave
+	 *  length of data to be considered reliable.
+	 **/
+	public static final int EPSILON = 32;
+
+	/**
+	 *  Size of the FFTs used by the Square algorithm,
+	 *  the smallest power of 2 of at least 2 * WAVE - 1.
+	 **/
+	public static final int FFT_SIZE = 8192;
+
+	/**
+	 *  Deviations calculated by FFT for the Square algorithm are only
+	 *  accurate to about this fraction of the largest deviation,
+	 *  windows closer than this to the best fit are counted as equal.
+	 **/
+	public static final double TOLERANCE = 1e-10;
+
+	/**
+	 *  Number of candidates whose deviations are calculated by one task.
+	 **/
+	public static final int BLOCK = 256;
+
+	/**
+	 *  Spacing of the grid of candidates scored first by the coarse search,
+	 *  the number of ping numbers between steps of wave(), see search().
+	 **/
+	public static final int COARSE = 16;
+
+	/**
+	 *  Cosine and sine of 2 * PI * k / FFT_SIZE.
+	 **/
+	protected static final double[] COS = new double[FFT_SIZE / 2];
+	protected static final double[] SIN = new double[FFT_SIZE / 2];
+	static {
+		for (int k = 0; k < FFT_SIZE / 2; k++) {
+			COS[k] = Math.cos(2 * Math.PI * k / FFT_SIZE);
+			SIN[k] = Math.sin(2 * Math.PI * k / FFT_SIZE);
+		}
+	}
+
+	/* ---------- Protected Members ---------- */
+
+	/* --- parameters --- */
+
+	/** First sample of the fire pulse. */
+	protected int first_;
+	/** Last sample of the fire pulse. */
+	protected int last_;
+	/** Number of pings either side of a ping in its weighted running mean. */
+	protected int avgWindow_;
+	/** Number of candidates summed when looking for the best fit, odd. */
+	protected int window_;
+	/** Maximum number of pings to include for each channel. */
+	protected int search_;
+	/** Number of initial pings to skip. */
+	protected int skip_;
+	/** Weighting of deviations, index into ALGORITHMS. */
+	protected int algorithm_;
+
+	/* --- data --- */
+
+	/** Number of pings included for each channel. */
+	protected int[] pings_;
+	/** Number of pings without enough samples for each channel. */
+	protected int[] nullpings_;
+	/** Sum of the fire pulse of all pings for each channel. */
+	protected int[] integrate_;
+	/** Fire pulse of each ping for each channel. */
+	protected int[][] pingVal_;
+	/** Number of pings seen for each channel, including those skipped. */
+	protected int[] pingtotal_;
+	/** Number of pings included, the most for any channel. */
+	protected int maxPings_;
+
+	/* --- results --- */
+
+	/** Mean fire pulse for each channel. */
+	protected double[] mean_;
+	/** Contribution of a part wave to the mean, for each candidate. */
+	protected double[] adjmean_;
+	/** Sum of deviations from each candidate wave for each channel. */
+	protected double[][] deviation_;
+	/** Sum of deviations from the mean with no wave for each channel. */
+	protected double[] zeroDev_;
+	/** Best fit for each channel, null if the channel has no data. */
+	protected Result[] results_;
+
+	/** Error of the deviations of each channel, 0 if exact. */
+	protected double[] tolerance_;
+
+	/**
+	 *  Sum deviations ping by ping even for the Square algorithm?
+	 **/
+	protected boolean exact_;
+
+	/**
+	 *  Spacing of the grid of the coarse search, 0 to calculate the deviation of every candidate.
+	 **/
+	protected int coarse_ = COARSE;
+
+	/**
+	 *  Also calculate every candidate and check the coarse search finds the same fit?
+	 **/
+	protected boolean validate_;
+
+	/** Number of candidates whose deviation was calculated for each channel. */
+	protected int[] candidates_;
+
+	/** Number of channels for which validation found a different fit. */
+	protected int mismatches_;
+
+	/**
+	 *  Number of threads to calculate deviations on.
+	 **/
+	protected int threads_ = 1;
+
+	/**
+	 *  Where to write the deviations, null for none.
+	 **/
+	protected PrintStream output_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Detector with the parameters used by ES60Adjust to scan files:
+	 *  samples 0 to 4, average window 5, detection window 1, WAVE pings,
+	 *  skip 10 pings, linear weighting.
+	 **/
+	public ES60Detector() {
+		this(0, 4, 5, 1, ES60Adjust.WAVE, 10, 0);
+	}
+
+	/**
+	 *  Create an ES60Detector.
+	 *  Parameters are corrected as ES60Adjust.Analyse.analyse() corrects them.
+	 *
+	 *  @param first First sample to include, should be within fire pulse.
+	 *  @param last Last sample to include, should still be within fire pulse.
+	 *  @param avgWindow number of pings either side of a ping to include in the weighted average of its value.
+	 *  @param window Size of window to use when looking for best candidate, made odd.
+	 *  @param search Maximum number of pings to include for each channel.
+	 *  @param skip Number of initial pings to skip.
+	 *  @param algorithm Weighting of deviations, index into ALGORITHMS.
+	 **/
+	public ES60Detector(int first, int last, int avgWindow, int window, int search, int skip, int algorithm) {
+		if (first < 0)
+			first = 0;
+		if (last < first)
+			last = first;
+		window |= 1;
+		if (search < window)
+			search = ES60Adjust.WAVE;
+		if (skip < 0)
+			skip = 0;
+
+		first_ = first;
+		last_ = last;
+		avgWindow_ = avgWindow;
+		window_ = window;
+		search_ = search;
+		skip_ = skip;
+		algorithm_ = algorithm;
+
+		pings_ = new int[MAX_CHANNELS];
+		nullpings_ = new int[MAX_CHANNELS];
+		integrate_ = new int[MAX_CHANNELS];
+		pingVal_ = new int[MAX_CHANNELS][];
+		pingtotal_ = new int[MAX_CHANNELS];
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Include a ping in the data, as Analyse.getStats() does.
+	 *
+	 *  @param rec Next RAW0 record in the sequence.
+	 *  @return false once search pings have been collected for every channel seen.
+	 **/
+	public boolean add(ES60RAW rec) {
+		int channel = rec.getChannel();
+		if (channel < 0 || channel >= MAX_CHANNELS)
+			return !isFull();
+		if (pingVal_[channel] == null)
+			pingVal_[channel] = new int[search_];
+
+		if (++pingtotal_[channel] > skip_ && pings_[channel] < search_) {
+			try {
+				pingVal_[channel][pings_[channel]] = rec.getSum(first_, last_);
+				integrate_[channel] += pingVal_[channel][pings_[channel]];
+				pings_[channel]++;
+			} catch (ES60RAW.InsufficientSamplesException ise) {
+				pingVal_[channel][pings_[channel]] = 0;
+				nullpings_[channel]++;
+				pings_[channel]++;
+			} catch (ArrayIndexOutOfBoundsException aioobe) {
+				aioobe.printStackTrace();
+			}
+			if (pings_[channel] > maxPings_)
+				maxPings_ = pings_[channel];
+		}
+		return !isFull();
+	}
+
+	/**
+	 *  Have search pings been collected for every channel seen?
+	 *  @return true if no more pings are needed.
+	 **/
+	public boolean isFull() {
+		boolean any = false;
+		for (int i = 0; i < pingtotal_.length; i++)
+			if (pingtotal_[i] > 0) {
+				if (pings_[i] < search_)
+					return false;
+				any = true;
+			}
+		return any;
+	}
+
+	/**
+	 *  Use data collected elsewhere, see Analyse.getStats().
+	 *  The arrays are used, not copied.
+	 *
+	 *  @param maxPings Number of pings collected.
+	 *  @param pings Count of pings for each channel.
+	 *  @param nullpings Count of pings with insufficient samples for each channel.
+	 *  @param integrate Sum of sample range for all pings for each channel.
+	 *  @param pingVal Sum of sample range for each ping for each channel.
+	 **/
+	public void setData(int maxPings, int[] pings, int[] nullpings, int[] integrate, int[][] pingVal) {
+		maxPings_ = maxPings;
+		pings_ = pings;
+		nullpings_ = nullpings;
+		integrate_ = integrate;
+		pingVal_ = pingVal;
+		pingtotal_ = new int[pings.length];
+	}
+
+	/**
+	 *  Compare the data with each candidate wave and find the best fit for each channel.
+	 *
+	 *  The deviation of each ping from each candidate is calculated as in
+	 *  ES60Adjust.Analyse.analyse(), with the same floating point operations
+	 *  in the same order, so the results are identical, but the running mean
+	 *  of each ping and n times the wave of each ping number are calculated
+	 *  once rather than for each candidate.
+	 *  For the Square algorithm the deviations are calculated by correlation
+	 *  instead, see correlate(), unless setExact() is set.
+	 *  Otherwise, unless setCoarse(0) or setOutput() is set, only the
+	 *  candidates which may be in the best fit are calculated, see search().
+	 **/
+	public void detect() {
+		int channels = pings_.length;
+		int n = last_ - first_ + 1;
+		int maxPings = maxPings_;
+		int WAVE = ES60Adjust.WAVE;
+
+		/*  mean value of the fire pulse for each channel */
+		double[] mean = new double[channels];
+
+		/*  Sum of deviation from mean fire pulse adjusted for triangle wave starting at ping i. */
+		double[][] deviation = new double[channels][WAVE];
+
+		/* sum of deviation from mean with no triangle wave */
+		double[] zeroDev = new double[channels];
+
+		/* calculate mean for each channel */
+		for (int i = 0; i < channels; i++)
+			if (pings_[i] > 0)
+				mean[i] = integrate_[i] / (double)(pings_[i] - nullpings_[i]);
+
+		/* n * wave for ping numbers 0 to 2 * WAVE, so ping % WAVE + p needs no % */
+		final int[] nWave = new int[2 * WAVE];
+		for (int i = 0; i < nWave.length; i++)
+			nWave[i] = n * ES60Adjust.wave(i);
+
+		/* --- calculate deviation from triangle waves --- */
+
+		/* calculate contribution of wave to mean for each candidate wave */
+		final double[] adjmean = new double[WAVE];
+		int part = maxPings % WAVE;
+		if (part != 0) {
+			/* 
+			 * sum of wave from ping skip + p for part pings, from prefix sums.
+			 * The sums are of ints, so are exact whether summed as longs or doubles.
+			 */
+			long[] sum = new long[2 * WAVE + 1];
+			for (int i = 0; i < 2 * WAVE; i++)
+				sum[i + 1] = sum[i] + ES60Adjust.wave(i);
+			for (int p = 0; p < WAVE; p++) {
+				int start = (p + skip_) % WAVE;
+				adjmean[p] = sum[start + part] - sum[start];
+				adjmean[p] *= n / (double)maxPings;
+			}
+		}
+
+		/* transforms of n * wave and its square for correlation, see correlate() */
+		final boolean fast = algorithm_ == 1 && !exact_;
+		final double[][] waveFFT = fast ? waveFFT(nWave) : null;
+		final double[] tolerance = new double[channels];
+		int[] candidates = new int[channels];
+		List<Search> searches = new ArrayList<Search>();
+		double[][] check = new double[channels][];
+
+		/* 
+		 * for each channel with data / for each block of candidate waves / for each ping in dataset /
+		 * calculate deviation.
+		 * Each task sets the deviations of one block of one channel, summing pings in order,
+		 * so the result does not depend on the number of threads.
+		 */
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int channel = 0; channel < channels; channel++) {
+			final int pings = Math.min(pings_[channel], maxPings);
+			if (pings <= 0)
+				continue;
+			final int[] pingVal = pingVal_[channel];
+			final double[] smooth = smooth(pingVal, pings);
+			final double[] dev = deviation[channel];
+			final int ch = channel;
+
+			/* calculate deviation of ping from mean with no wave */
+			for (int v = 0; v < pings; v++)
+				if (pingVal[v] != 0)
+					zeroDev[channel] += weight(mean[channel] - pingVal[v]);
+
+			candidates[channel] = WAVE;
+			if (fast) {
+				final double chMean = mean[channel];
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						tolerance[ch] = correlate(dev, smooth, pingVal, pings, chMean, adjmean, waveFFT);
+						return null;
+					}
+				});
+				continue;
+			}
+
+			/* mean less contribution of wave for each candidate wave */
+			double[] base = new double[WAVE];
+			for (int p = 0; p < WAVE; p++)
+				base[p] = mean[channel] - adjmean[p];
+
+			/* every candidate, into check if validating the coarse search */
+			double[] all = dev;
+			if (coarse_ > 1 && output_ == null) {
+				searches.add(new Search(channel, dev, pingVal, smooth, pings, base, nWave));
+				if (!validate_)
+					continue;
+				all = check[channel] = new double[WAVE];
+			}
+			for (int from = 0; from < WAVE; from += BLOCK)
+				tasks.add(block(all, from, Math.min(BLOCK, WAVE - from), pingVal, smooth, pings, base, nWave));
+		}
+		/* one pool for all the tasks of this detect(), null to run them on this thread */
+		ExecutorService pool = threads_ > 1 ? Executors.newFixedThreadPool(threads_) : null;
+		try {
+			run(tasks, pool);
+			if (!searches.isEmpty())
+				search(searches, nWave, candidates, pool);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		/* output column headings and parameters, then ping details in ping order */
+		if (output_ != null) {
+			output_.println("Channel\tPing\tsum\tn*wave\tMean\tadj\tdev[0]\t" + first_ + "\t" + last_ + "\t" + maxPings + "\t");
+			for (int v = 0; v < maxPings; v++)
+				for(int channel = 0; channel < channels; channel++) {
+					int[] pingVal = pingVal_[channel];
+					if (v < pings_[channel] && pingVal[v] != 0) {
+						int ping = skip_ + v;
+						output_.println(channel + "\t" + ping + "\t" + pingVal[v] + "\t" + (n * ES60Adjust.wave(ping)) + "\t" +
+								mean[channel] + "\t" + adjmean[ping % WAVE] + "\t" +
+								(mean[channel] + adjmean[0] - pingVal[v] + n * ES60Adjust.wave(ping)));
+					}
+				}
+		}
+
+		mean_ = mean;
+		adjmean_ = adjmean;
+		deviation_ = deviation;
+		zeroDev_ = zeroDev;
+		tolerance_ = tolerance;
+		candidates_ = candidates;
+		mismatches_ = 0;
+
+		/* output column headers for candidate wave data */
+		if (output_ != null)
+			output_.println("Channel\tInitialPing\tdeviation\t" + first_ + "\t" + last_ + "\t" + maxPings + "\t" + ALGORITHMS[algorithm_]);
+
+		results_ = new Result[channels];
+		for (int channel = 0; channel < channels; channel++)
+			if (pings_[channel] > 0)
+				results_[channel] = bestFit(channel, deviation[channel], output_);
+
+		/* check the coarse search against every candidate, and use every candidate if they differ */
+		for (int channel = 0; channel < channels; channel++) {
+			if (check[channel] == null)
+				continue;
+			Result result = results_[channel];
+			Result exhaustive = bestFit(channel, check[channel], null);
+			boolean same = result.initial_ == exhaustive.initial_ && result.min_ == exhaustive.min_ &&
+				result.count_ == exhaustive.count_;
+			for (int p = 0; p < WAVE; p++)
+				if (!Double.isNaN(deviation[channel][p]) && deviation[channel][p] != check[channel][p])
+					same = false;
+			if (!same) {
+				mismatches_++;
+				deviation[channel] = check[channel];
+				results_[channel] = exhaustive;
+				System.err.println("Coarse search of channel " + channel + " found " + result.initial_ + ":" + 
+						result.count_ + " not " + exhaustive.initial_ + ":" + exhaustive.count_);
+			}
+		}
+	}
+
+	/**
+	 *  Returns the best fit for a channel, found by detect().
+	 *  @param channel Channel number.
+	 *  @return Best fit, or null if there is no data for the channel.
+	 **/
+	public Result getResult(int channel) {
+		if (results_ == null || channel < 0 || channel >= results_.length)
+			return null;
+		return results_[channel];
+	}
+
+	/**
+	 *  Returns the ping number of the first ping of the sequence agreed by
+	 *  the channels for which the wave was found.
+	 *  If channels disagree the value found by most channels is used,
+	 *  or by the lowest numbered channel if there is a tie.
+	 *  detect() must have been called.
+	 *
+	 *  @return Best fit, or null if the wave was not found on any channel.
+	 **/
+	public Result getBest() {
+		Result best = null;
+		int votes = 0;
+		for (int i = 0; i < results_.length; i++) {
+			Result r = results_[i];
+			if (r == null || r.getStatus(-1) != FOUND)
+				continue;
+			int v = 0;
+			for (int j = 0; j < results_.length; j++)
+				if (results_[j] != null && results_[j].getStatus(-1) == FOUND &&
+						results_[j].getInitial() == r.getInitial())
+					v++;
+			if (v > votes) {
+				best = r;
+				votes = v;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 *  Returns the mean fire pulse of a channel, found by detect().
+	 *  @param channel Channel number.
+	 *  @return Mean of the pings with enough samples.
+	 **/
+	public double getMean(int channel) {
+		return mean_[channel];
+	}
+
+	/**
+	 *  Returns the contribution to the mean of the part wave at the end
+	 *  of the data, found by detect().
+	 *  @param p Candidate ping number of the first ping.
+	 *  @return Value included in the mean by the wave.
+	 **/
+	public double getAdjMean(int p) {
+		return adjmean_[p];
+	}
+
+	/**
+	 *  Returns the sum of deviations from each candidate wave, found by detect().
+	 *  @param channel Channel number.
+	 *  @return Deviations indexed by the candidate ping number of the first ping,
+	 *          NaN for candidates the coarse search did not need.
+	 **/
+	public double[] getDeviation(int channel) {
+		return deviation_[channel];
+	}
+
+	/**
+	 *  Returns the fire pulse values collected for a channel.
+	 *  @param channel Channel number.
+	 *  @return Values, 0 for pings without enough samples, or null if none.
+	 **/
+	public int[] getPingValues(int channel) {
+		return pingVal_[channel];
+	}
+
+	/**
+	 *  Returns the number of pings included, the most for any channel.
+	 *  @return Number of pings.
+	 **/
+	public int getPings() {
+		return maxPings_;
+	}
+
+	/**
+	 *  Returns the number of pings added, including those skipped
+	 *  or beyond search, the most for any channel.
+	 *  @return Number of pings.
+	 **/
+	public int getPingTotal() {
+		int total = 0;
+		for (int i = 0; i < pingtotal_.length; i++)
+			total = Math.max(total, pingtotal_[i]);
+		return total;
+	}
+
+	/** @return First sample of the fire pulse. */
+	public int getFirst() {
+		return first_;
+	}
+
+	/** @return Last sample of the fire pulse. */
+	public int getLast() {
+		return last_;
+	}
+
+	/** @return Number of pings either side of a ping in its running mean. */
+	public int getAvgWindow() {
+		return avgWindow_;
+	}
+
+	/** @return Number of candidates summed when looking for the best fit. */
+	public int getWindow() {
+		return window_;
+	}
+
+	/** @return Maximum number of pings included for each channel. */
+	public int getSearch() {
+		return search_;
+	}
+
+	/** @return Number of initial pings skipped. */
+	public int getSkip() {
+		return skip_;
+	}
+
+	/** @return Weighting of deviations, index into ALGORITHMS. */
+	public int getAlgorithm() {
+		return algorithm_;
+	}
+
+	/**
+	 *  Sum the deviations of the Square algorithm ping by ping, as for the
+	 *  other algorithms, rather than by correlation. Slower, but the
+	 *  results are identical to those of earlier versions.
+	 *  @param exact Sum ping by ping?
+	 **/
+	public void setExact(boolean exact) {
+		exact_ = exact;
+	}
+
+	/**
+	 *  Returns the number of candidates whose deviation was calculated for a channel by detect(),
+	 *  WAVE unless the coarse search was used.
+	 *  @param channel Channel number.
+	 *  @return Number of candidates calculated, 0 if the channel has no data.
+	 **/
+	public int getCandidates(int channel) {
+		return candidates_[channel];
+	}
+
+	/**
+	 *  Returns the number of channels for which validation of the coarse
+	 *  search by the last detect() found a different fit, see setValidate().
+	 *  @return Number of channels, 0 if they all agreed or there was no validation.
+	 **/
+	public int getMismatches() {
+		return mismatches_;
+	}
+
+	/**
+	 *  Set the spacing of the grid of candidates scored first by the coarse search,
+	 *  see search(). The best fit is the same for any spacing.
+	 *  @param coarse Spacing in ping numbers, 0 or 1 to calculate the deviation of every candidate.
+	 **/
+	public void setCoarse(int coarse) {
+		coarse_ = coarse;
+	}
+
+	/**
+	 *  Also calculate the deviation of every candidate when the coarse search is
+	 *  used, and check both give the same deviations and best fit.
+	 *  A channel which differs, counted by getMismatches(), is reported
+	 *  on System.err and the fit of every candidate used.
+	 *  @param validate Check the coarse search?
+	 **/
+	public void setValidate(boolean validate) {
+		validate_ = validate;
+	}
+
+	/**
+	 *  Calculate deviations on several threads. The results are the same
+	 *  on any number of threads.
+	 *  @param threads Number of threads, 0 for one per processor.
+	 **/
+	public void setThreads(int threads) {
+		threads_ = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 *  Write the fire pulse of each ping and the deviation for each candidate
+	 *  to a stream when detect() is called, as tab separated columns.
+	 *  Every candidate is calculated, without the coarse search.
+	 *  @param output Stream to write to, null for none.
+	 **/
+	public void setOutput(PrintStream output) {
+		output_ = output;
+	}
+
+	/**
+	 *  Returns a summary of the parameters.
+	 **/
+	public String toString() {
+		return "First " + first_ +
+			", Last " + last_ +
+			", Average " + avgWindow_ +
+			", Window " + window_ +
+			", Pings " + maxPings_ +
+			", Skip " + skip_ +
+			"  " + ALGORITHMS[algorithm_];
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Calculate the weighted running mean of each ping value, 
+	 *  the weighted average of the ping and avgWindow - 1 pings either side of it,
+	 *  ignoring pings without a value.
+	 *
+	 *  @param pingVal Ping values, 0 for no value.
+	 *  @param pings Number of pings to calculate.
+	 *  @return Running mean of each ping.
+	 **/
+	protected double[] smooth(int[] pingVal, int pings) {
+		double[] smooth = new double[pings];
+		for (int v = 0; v < pings; v++) {
+			double dev = pingVal[v];
+			double nVals = 1;
+			for (int i = 1; i < avgWindow_; i++) {
+				if (v - i >= 0 && pingVal[v - i] != 0) {
+					dev += pingVal[v - i] / (1.0 + i);
+					nVals += 1 / (1.0 + i);
+				}
+				if (v + i < pingVal.length && pingVal[v + i] != 0) {
+					dev += pingVal[v + i] / (1.0 + i);
+					nVals += 1 / (1.0 + i);
+				}
+			}
+			smooth[v] = dev / nVals;
+		}
+		return smooth;
+	}
+
+	/**
+	 *  Add the weighted deviation of a ping from each candidate wave of a block.
+	 *
+	 *  @param deviation Sum of deviations for each candidate of the block, updated.
+	 *  @param from First candidate of the block.
+	 *  @param value Running mean of the ping.
+	 *  @param base Mean less the contribution of the wave to it, for each candidate.
+	 *  @param nWave n * wave for each ping number, 2 * WAVE long.
+	 *  @param q Ping number of the ping in the candidate starting at 0, ping % WAVE.
+	 **/
+	protected void accumulate(double[] deviation, int from, double value, double[] base, int[] nWave, int q) {
+		int length = deviation.length;
+		q += from;
+		switch (algorithm_) {
+			case 1:
+				for (int i = 0; i < length; i++) {
+					double dev = value - (base[from + i] + nWave[q + i]);
+					deviation[i] += dev * dev;
+				}
+				break;
+			case 2:
+				for (int i = 0; i < length; i++)
+					deviation[i] += Math.sqrt(Math.abs(value - (base[from + i] + nWave[q + i])));
+				break;
+			case 3:
+				for (int i = 0; i < length; i++)
+					deviation[i] += Math.log(1 + Math.abs(value - (base[from + i] + nWave[q + i])));
+				break;
+			default:
+				for (int i = 0; i < length; i++)
+					deviation[i] += Math.abs(value - (base[from + i] + nWave[q + i]));
+		}
+	}
+
+	/**
+	 *  Run tasks on the threads of a pool.
+	 *  Each task is run once, by whichever of a pool thread and this thread
+	 *  claims it first. If interrupted the tasks not yet started are run on
+	 *  this thread and those already started are waited for, so all tasks
+	 *  are complete on return, and the interrupt is kept.
+	 *
+	 *  @param tasks Tasks to run, which must not throw checked exceptions.
+	 *  @param pool Pool to run them on, null to run them on this thread.
+	 **/
+	protected void run(List<Callable<Object>> tasks, ExecutorService pool) {
+		if (pool == null || tasks.size() <= 1) {
+			for (Callable<Object> task : tasks)
+				call(task);
+			return;
+		}
+
+		List<AtomicBoolean> claimed = new ArrayList<AtomicBoolean>();
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (final Callable<Object> task : tasks) {
+			final AtomicBoolean claim = new AtomicBoolean();
+			claimed.add(claim);
+			results.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					return claim.compareAndSet(false, true) ? task.call() : null;
+				}
+			}));
+		}
+
+		boolean interrupted = false;
+		for (int i = 0; i < tasks.size(); i++) {
+			while (true) {
+				if (interrupted && claimed.get(i).compareAndSet(false, true)) {
+					call(tasks.get(i));
+					break;
+				}
+				try {
+					results.get(i).get();
+					break;
+				} catch (InterruptedException ie) {
+					/* run the task here if not started, otherwise wait for it */
+					interrupted = true;
+				} catch (ExecutionException ee) {
+					pool.shutdownNow();
+					if (ee.getCause() instanceof RuntimeException)
+						throw (RuntimeException)ee.getCause();
+					if (ee.getCause() instanceof Error)
+						throw (Error)ee.getCause();
+					throw new IllegalStateException(ee.getCause());
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 *  Run a task on this thread.
+	 *  @param task Task which does not throw checked exceptions.
+	 **/
+	protected static void call(Callable<Object> task) {
+		try {
+			task.call();
+		} catch (RuntimeException re) {
+			throw re;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *  Returns a task calculating the deviations of a block of candidates,
+	 *  summing the pings in order so the result does not depend on the block.
+	 *
+	 *  @param deviation Sum of deviations for each candidate, the block is set.
+	 *  @param from First candidate of the block.
+	 *  @param length Number of candidates in the block.
+	 *  @param pingVal Ping values, 0 for no value.
+	 *  @param smooth Running mean of each ping.
+	 *  @param pings Number of pings.
+	 *  @param base Mean less the contribution of the wave to it, for each candidate.
+	 *  @param nWave n * wave for each ping number, 2 * WAVE long.
+	 *  @return The task.
+	 **/
+	protected Callable<Object> block(final double[] deviation, final int from, final int length, 
+			final int[] pingVal, final double[] smooth, final int pings, final double[] base, final int[] nWave) {
+		return new Callable<Object>() {
+			public Object call() {
+				double[] block = new double[length];
+				for (int v = 0; v < pings; v++)
+					if (pingVal[v] != 0)
+						/* calculate deviation of ping from mean plus candiate wave */
+						accumulate(block, from, smooth[v], base, nWave, (skip_ + v) % ES60Adjust.WAVE);
+				System.arraycopy(block, 0, deviation, from, length);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 *  Coarse to fine search for the candidates which may be in the best fit.
+	 *
+	 *  Candidates coarse_ apart are calculated first. wave() only changes
+	 *  every 16 ping numbers, so n * wave of the same ping in candidates d apart
+	 *  differs by at most change[d], a few times n, and the value the ping
+	 *  is compared with by at most delta = change[d] plus the difference of
+	 *  the contributions of the wave to the mean. For each algorithm the
+	 *  deviation of K pings then differs by no more than
+	 *<pre>
+	 *    Linear       K * delta
+	 *    Square       (sqrt(K) * delta + sqrt(dev)) ^ 2 - dev
+	 *    Square root  K * sqrt(delta)
+	 *    Log          K * log(1 + delta)
+	 *</pre>
+	 *  as |x + y| &lt;= |x| + |y|, and likewise for the square root of the sum
+	 *  of squares, the square root and log(1 + x), giving a lower bound of the
+	 *  deviation of every candidate from the nearest calculated candidates.
+	 *  Each round the candidates of any window whose lower bound is no more
+	 *  than the least window of calculated candidates are calculated,
+	 *  until there are none. Every window which could fit as well as the best
+	 *  is then calculated exactly as for every candidate, so the best fit
+	 *  and the number of equal fits are the same, see setValidate().
+	 *  Candidates far from the best fit are never calculated, typically nine
+	 *  in ten, but if there is no wave in the data most candidates are.
+	 *
+	 *  @param searches Channels to search.
+	 *  @param nWave n * wave for each ping number, 2 * WAVE long.
+	 *  @param candidates Number of candidates calculated for each channel, set.
+	 *  @param pool Pool to calculate on, null to calculate on this thread.
+	 **/
+	protected void search(List<Search> searches, int[] nWave, int[] candidates, ExecutorService pool) {
+		int WAVE = ES60Adjust.WAVE;
+		int step = Math.min(coarse_, WAVE / 2);
+
+		/* largest change of n * wave between ping numbers d apart */
+		int[] change = new int[step + 1];
+		for (int d = 1; d <= step; d++)
+			for (int i = 0; i < WAVE; i++)
+				change[d] = Math.max(change[d], Math.abs(nWave[i + d] - nWave[i]));
+
+		/* calculate the grid, then refine until every candidate which may fit best is calculated */
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (Search search : searches)
+			tasks.add(search.grid(step));
+		while (!tasks.isEmpty()) {
+			run(tasks, pool);
+			tasks.clear();
+			for (Search search : searches)
+				search.refine(tasks, change);
+		}
+		for (Search search : searches)
+			candidates[search.channel_] = search.calculated_;
+	}
+
+	/**
+	 *  Calculate the deviations of the Square algorithm by correlation.
+	 *
+	 *  With t the running mean of a ping less the mean, a[p] the contribution
+	 *  of candidate p to the mean and W n * wave, the deviation of a ping at
+	 *  ping number q in the candidate starting at 0 is t + a[p] - W[q + p]
+	 *  and the sum of their squares over all pings is
+	 *<pre>
+	 *    sum(t * t) + K * a[p] * a[p] + 2 * a[p] * sum(t)
+	 *        - 2 * X(p) - 2 * a[p] * Y(p) + Z(p)
+	 *</pre>
+	 *  where K is the number of pings and, with T[q] the sum of t and C[q]
+	 *  the number of pings at ping number q (mod WAVE),
+	 *  X(p) = sum T[q] * W[q + p], Y(p) = sum C[q] * W[q + p] and Z(p) = sum C[q] * W[q + p]^2
+	 *  are circular correlations of length WAVE, calculated by FFT.
+	 *  This takes a few milliseconds however many pings are searched.
+	 *
+	 *  @param deviation Sum of deviations for each candidate, set.
+	 *  @param smooth Running mean of each ping.
+	 *  @param pingVal Ping values, 0 for no value.
+	 *  @param pings Number of pings.
+	 *  @param mean Mean of the ping values.
+	 *  @param adjmean Contribution of wave to mean for each candidate.
+	 *  @param waveFFT Transforms of n * wave and its square, see waveFFT().
+	 *  @return Possible error of the deviations.
+	 **/
+	protected double correlate(double[] deviation, double[] smooth, int[] pingVal, int pings, 
+			double mean, double[] adjmean, double[][] waveFFT) {
+		int WAVE = deviation.length;
+
+		/* sum of t and number of pings for each ping number */
+		double[] tRe = new double[FFT_SIZE];
+		double[] tIm = new double[FFT_SIZE];
+		double[] cRe = new double[FFT_SIZE];
+		double[] cIm = new double[FFT_SIZE];
+		double sum = 0;
+		double sumSq = 0;
+		int k = 0;
+		for (int v = 0; v < pings; v++)
+			if (pingVal[v] != 0) {
+				double t = smooth[v] - mean;
+				int q = (skip_ + v) % WAVE;
+				tRe[q] += t;
+				cRe[q]++;
+				sum += t;
+				sumSq += t * t;
+				k++;
+			}
+		fft(tRe, tIm, false);
+		fft(cRe, cIm, false);
+
+		/* X = T * W, Y = C * W, Z = C * W^2 by the conjugate of the transforms of T and C */
+		double[] xRe = new double[FFT_SIZE];
+		double[] xIm = new double[FFT_SIZE];
+		double[] yRe = new double[FFT_SIZE];
+		double[] yIm = new double[FFT_SIZE];
+		double[] zRe = new double[FFT_SIZE];
+		double[] zIm = new double[FFT_SIZE];
+		double[] wRe = waveFFT[0];
+		double[] wIm = waveFFT[1];
+		double[] w2Re = waveFFT[2];
+		double[] w2Im = waveFFT[3];
+		for (int i = 0; i < FFT_SIZE; i++) {
+			xRe[i] = tRe[i] * wRe[i] + tIm[i] * wIm[i];
+			xIm[i] = tRe[i] * wIm[i] - tIm[i] * wRe[i];
+			yRe[i] = cRe[i] * wRe[i] + cIm[i] * wIm[i];
+			yIm[i] = cRe[i] * wIm[i] - cIm[i] * wRe[i];
+			zRe[i] = cRe[i] * w2Re[i] + cIm[i] * w2Im[i];
+			zIm[i] = cRe[i] * w2Im[i] - cIm[i] * w2Re[i];
+		}
+		fft(xRe, xIm, true);
+		fft(yRe, yIm, true);
+		fft(zRe, zIm, true);
+
+		double max = 0;
+		for (int p = 0; p < WAVE; p++) {
+			double a = adjmean[p];
+			double dev = sumSq + k * a * a + 2 * a * sum - 2 * xRe[p] - 2 * a * yRe[p] + zRe[p];
+			deviation[p] = dev < 0 ? 0 : dev;
+			if (deviation[p] > max)
+				max = deviation[p];
+		}
+		return max * TOLERANCE;
+	}
+
+	/**
+	 *  Transform n * wave and its square for correlate().
+	 *  @param nWave n * wave for ping numbers 0 to 2 * WAVE.
+	 *  @return Real and imaginary parts of the transforms of nWave and nWave^2.
+	 **/
+	protected static double[][] waveFFT(int[] nWave) {
+		double[][] waveFFT = new double[4][FFT_SIZE];
+		for (int i = 0; i < nWave.length; i++) {
+			waveFFT[0][i] = nWave[i];
+			waveFFT[2][i] = (double)nWave[i] * nWave[i];
+		}
+		fft(waveFFT[0], waveFFT[1], false);
+		fft(waveFFT[2], waveFFT[3], false);
+		return waveFFT;
+	}
+
+	/**
+	 *  In place radix 2 fast Fourier transform of FFT_SIZE complex values.
+	 *
+	 *  @param re Real parts.
+	 *  @param im Imaginary parts.
+	 *  @param inverse Calculate the inverse transform, scaled by 1 / FFT_SIZE?
+	 **/
+	protected static void fft(double[] re, double[] im, boolean inverse) {
+		int n = FFT_SIZE;
+
+		/* bit reversed order */
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1)
+				j ^= bit;
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+
+		/* butterflies */
+		for (int len = 2; len <= n; len <<= 1) {
+			int half = len >> 1;
+			int step = n / len;
+			for (int i = 0; i < n; i += len)
+				for (int k = 0; k < half; k++) {
+					double cr = COS[k * step];
+					double ci = inverse ? SIN[k * step] : -SIN[k * step];
+					int a = i + k;
+					int b = a + half;
+					double tr = re[b] * cr - im[b] * ci;
+					double ti = re[b] * ci + im[b] * cr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+		}
+
+		if (inverse)
+			for (int i = 0; i < n; i++) {
+				re[i] /= n;
+				im[i] /= n;
+			}
+	}
+
+	/**
+	 *  Apply the weighting algorithm to a deviation.
+	 *  @param dev Deviation.
+	 *  @return Weighted absolute deviation.
+	 **/
+	protected double weight(double dev) {
+		if (dev < 0)
+			dev = - dev;
+		if (algorithm_ == 1)
+			dev *= dev;
+		if (algorithm_ == 2)
+			dev = Math.sqrt(dev);
+		if (algorithm_ == 3)
+			dev = Math.log(1 + dev);
+		return dev;
+	}
+
+	/**
+	 *  Find the window of candidates with the least deviation for a channel.
+	 *  Windows including a candidate which was not calculated (NaN) are passed over.
+	 *  @param channel Channel number.
+	 *  @param deviation Deviation of each candidate.
+	 *  @param output Where to write the deviations, null for none.
+	 *  @return The best fit.
+	 **/
+	protected Result bestFit(int channel, double[] deviation, PrintStream output) {
+		int WAVE = ES60Adjust.WAVE;
+
+		/* ping number of first ping of best fit wave */
+		int initial = 0;
+		/* sum of deviation of window of best fit wave */
+		double min = Double.MAX_VALUE;
+		/* number of candidates that also have the best fit score */
+		int count = 0;
+		/* difference in window sums counted as equal */
+		double tol = tolerance_[channel] * window_;
+
+		/* for each candidate wave */
+		for (int p = 0; p < WAVE; p++) {
+
+			/* output candidate wave data */
+			if (output != null)
+				output.println(channel + "\t" + p + "\t" + deviation[p]);
+
+			/* sum window */
+			double windev = 0;
+			for (int w = 0; w < window_; w++)
+				windev += deviation[(p + w) % WAVE];
+
+			/* if this window is an equal best */
+			if (windev == min || (tol > 0 && Math.abs(windev - min) <= tol))
+				count++;
+
+			/* if this window is the best fit so far */
+			else if (windev < min) {
+				min = windev;
+				initial = (p + window_ / 2) % WAVE; // center of window
+				count = 0;
+			}
+		}
+		return new Result(channel, initial, min, count);
+	}
+
+	/* ---------- Inner Classes ---------- */
+
+	/* ----- Class Search ----- */
+
+	/**
+	 *  The coarse to fine search of one channel, see search().
+	 **/
+	protected class Search {
+
+		/** Channel number. */
+		protected int channel_;
+		/** Sum of deviations for each candidate, NaN until calculated. */
+		protected double[] dev_;
+		/** Ping values, 0 for no value. */
+		protected int[] values_;
+		/** Running mean of each ping. */
+		protected double[] smooth_;
+		/** Number of pings. */
+		protected int pings_;
+		/** Mean less the contribution of the wave to it, for each candidate. */
+		protected double[] base_;
+		/** n * wave for each ping number, 2 * WAVE long. */
+		protected int[] nWave_;
+		/** Number of pings with a value, K. */
+		protected int weighted_;
+		/** Has the deviation of each candidate been calculated, or is it being? */
+		protected boolean[] done_;
+		/** Number of candidates calculated. */
+		protected int calculated_;
+
+		/**
+		 *  Create a Search.
+		 **/
+		protected Search(int channel, double[] dev, int[] values, double[] smooth, int pings, double[] base, int[] nWave) {
+			channel_ = channel;
+			dev_ = dev;
+			values_ = values;
+			smooth_ = smooth;
+			pings_ = pings;
+			base_ = base;
+			nWave_ = nWave;
+			done_ = new boolean[dev.length];
+			Arrays.fill(dev, Double.NaN);
+			for (int v = 0; v < pings; v++)
+				if (values[v] != 0)
+					weighted_++;
+		}
+
+		/**
+		 *  Returns a task calculating the deviations of the candidates step apart from 0.
+		 *  Each is summed with the same floating point operations in the same order as accumulate().
+		 *  @param step Spacing of the grid.
+		 *  @return The task.
+		 **/
+		protected Callable<Object> grid(final int step) {
+			final int WAVE = dev_.length;
+			for (int p = 0; p < WAVE; p += step) {
+				done_[p] = true;
+				calculated_++;
+			}
+			return new Callable<Object>() {
+				public Object call() {
+					double[] grid = new double[(WAVE + step - 1) / step];
+					for (int v = 0; v < pings_; v++)
+						if (values_[v] != 0) {
+							double value = smooth_[v];
+							int q = (skip_ + v) % WAVE;
+							for (int i = 0, p = 0; p < WAVE; i++, p += step)
+								grid[i] += weight(value - (base_[p] + nWave_[q + p]));
+						}
+					for (int i = 0, p = 0; p < WAVE; i++, p += step)
+						dev_[p] = grid[i];
+					return null;
+				}
+			};
+		}
+
+		/**
+		 *  Add tasks calculating the candidates of each window which may fit as well
+		 *  as the best window of calculated candidates. 
+		 *  If no window has been calculated the window with the least bound is.
+		 *
+		 *  @param tasks Tasks to run, added to.
+		 *  @param change Largest change of n * wave between ping numbers d apart.
+		 **/
+		protected void refine(List<Callable<Object>> tasks, int[] change) {
+			int WAVE = dev_.length;
+
+			/* lower bound of each candidate from the nearest calculated candidate either side, 0 is calculated */
+			double[] low = new double[WAVE];
+			for (int p = 0, k = 0; p < WAVE; p++)
+				if (done_[p])
+					low[p] = dev_[k = p];
+				else
+					low[p] = lower(k, p, p - k, change);
+			for (int p = WAVE - 1, k = WAVE; p >= 0; p--)
+				if (done_[p])
+					k = p;
+				else
+					low[p] = Math.max(low[p], lower(k % WAVE, p, k - p, change));
+
+			/* window sums as bestFit() sums them, least of those calculated and least bound of the rest */
+			double[] sum = new double[WAVE];
+			boolean[] whole = new boolean[WAVE];
+			double min = Double.POSITIVE_INFINITY;
+			double least = Double.POSITIVE_INFINITY;
+			int leastP = 0;
+			for (int p = 0; p < WAVE; p++) {
+				boolean complete = true;
+				for (int w = 0; w < window_; w++) {
+					sum[p] += low[(p + w) % WAVE];
+					complete &= done_[(p + w) % WAVE];
+				}
+				whole[p] = complete;
+				if (complete && sum[p] < min)
+					min = sum[p];
+				if (!complete && sum[p] < least) {
+					least = sum[p];
+					leastP = p;
+				}
+			}
+
+			/* candidates of windows which may fit as well */
+			boolean[] need = new boolean[WAVE];
+			for (int p = 0; p < WAVE; p++)
+				if (!whole[p] && (min < Double.POSITIVE_INFINITY ? sum[p] <= min : p == leastP))
+					for (int w = 0; w < window_; w++)
+						need[(p + w) % WAVE] = !done_[(p + w) % WAVE];
+
+			/* calculate them in blocks of consecutive candidates, recalculating single candidates between them */
+			for (int p = 0; p < WAVE; ) {
+				if (!need[p]) {
+					p++;
+					continue;
+				}
+				int from = p;
+				for (; p < WAVE && p - from < BLOCK && (need[p] || p + 1 < WAVE && need[p + 1]); p++)
+					if (need[p]) {
+						done_[p] = true;
+						calculated_++;
+					}
+				tasks.add(block(dev_, from, p - from, values_, smooth_, pings_, base_, nWave_));
+			}
+		}
+
+		/**
+		 *  Returns a lower bound of the deviation of a candidate from that of a calculated candidate.
+		 *  The bound is reduced by the possible rounding error of the sums.
+		 *
+		 *  @param k Calculated candidate.
+		 *  @param p Candidate.
+		 *  @param d Number of ping numbers between them, at most the spacing of the grid.
+		 *  @param change Largest change of n * wave between ping numbers d apart.
+		 *  @return Lower bound, which may be negative.
+		 **/
+		protected double lower(int k, int p, int d, int[] change) {
+			double dev = dev_[k];
+			double delta = Math.abs(base_[p] - base_[k]) + change[d];
+			double low;
+			switch (algorithm_) {
+				case 1:
+					low = Math.sqrt(dev) - Math.sqrt(weighted_) * delta;
+					low = low > 0 ? low * low : 0;
+					break;
+				case 2:
+					low = dev - weighted_ * Math.sqrt(delta);
+					break;
+				case 3:
+					low = dev - weighted_ * Math.log(1 + delta);
+					break;
+				default:
+					low = dev - weighted_ * delta;
+			}
+			return low - dev * (weighted_ + window_ + 8) * Math.ulp(1.0);
+		}
+	}
+
+	/* ----- Class Result ----- */
+
+	/**
+	 *  The best fit of the candidate waves to the data for one channel.
+	 **/
+	public class Result {
+
+		/** Channel number. */
+		protected int channel_;
+		/** Ping number of the first ping of the best fit. */
+		protected int initial_;
+		/** Sum of deviations of the window of candidates of the best fit. */
+		protected double min_;
+		/** Number of other windows which fit as well. */
+		protected int count_;
+
+		/**
+		 *  Create a Result.
+		 **/
+		protected Result(int channel, int initial, double min, int count) {
+			channel_ = channel;
+			initial_ = initial;
+			min_ = min;
+			count_ = count;
+		}
+
+		/** @return Channel number. */
+		public int getChannel() {
+			return channel_;
+		}
+
+		/** @return Ping number in the triangle wave of the first ping. */
+		public int getInitial() {
+			return initial_;
+		}
+
+		/** @return Sum of deviations of the best window of candidates. */
+		public double getDeviation() {
+			return min_;
+		}
+
+		/** @return Number of other windows which fit equally well. */
+		public int getCount() {
+			return count_;
+		}
+
+		/** @return Sum of deviations from a flat mean, scaled to a window of candidates. */
+		public double getZeroDeviation() {
+			return zeroDev_[channel_] * window_;
+		}
+
+		/**
+		 *  Returns the ping number in the triangle wave of the last ping.
+		 *  @param pings Number of pings of the channel in the file, or -1 to use the number included.
+		 *  @return Ping number modulo WAVE.
+		 **/
+		public int getFinal(int pings) {
+			return (initial_ + (pings < 0 ? maxPings_ : pings)) % ES60Adjust.WAVE;
+		}
+
+		/**
+		 *  Check the quality of the fit.
+		 *  @param pings Number of pings of the channel in the file, or -1 to use the number included.
+		 *  @return FOUND if the result is usable, otherwise why not.
+		 **/
+		public int getStatus(int pings) {
+			int WAVE = ES60Adjust.WAVE;
+
+			/* turning points */
+			int turn1 = WAVE / 4 + 1;
+			int turn2 = WAVE * 3 / 4 + 1;
+			int fin = getFinal(pings);
+
+			/* If flat mean fits better than any candidate wave */
+			if (getZeroDeviation() < min_)
+				return NONE;
+
+			/* if multiple candidates */
+			if (count_ > 0)
+				return UNKNOWN;
+
+			if (maxPings_ < WAVE / 2) {
+				/* if start of data is too close to turning point to be reliable */
+				if ((turn1 - EPSILON < initial_ && turn1 + EPSILON > initial_) ||
+						(turn2 - EPSILON < initial_ && turn2 + EPSILON > initial_))
+					return EDGE_START;
+
+				/* if end of data is too close to turning point to be reliable */
+				if ((turn1 - EPSILON < fin && turn1 + EPSILON > fin) ||
+						(turn2 - EPSILON < fin && turn2 + EPSILON > fin))
+					return EDGE_END;
+
+				/* if no turning points are included in the data set - on down slope */
+				if (turn1 < initial_ && initial_ < fin && fin < turn2)
+					return DOWN_SLOPE;
+
+				/* if no turning points are included in the data set - on up slope */
+				if (turn2 < initial_ && fin < turn1)
+					return UP_SLOPE;
+			}
+			return FOUND;
+		}
+	}
+}
+
+/*
+    Test everything; hold fast what is good.
+            1 Thessalonians 5:21
+*/
@@ -0,0 +1,315 @@
+/*
+    ES60Journal.java  au.csiro.marine.echo.ES60Journal
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+    ES60Journal records each file ES60Adjust has finished writing, so an
+    interrupted batch can be restarted without correcting those files again.
+
+    The journal is a text file, NAME in the output directory, with a line
+    for each output file:
+<pre>
+    input path  input length  output name  start ping  end ping  output length  CRC32
+</pre>
+    separated by tabs. Each output file is forced to disk before its line
+    is appended, and the journal is forced to disk after it, so a file in
+    the journal is complete even after a crash or power loss.
+    An incomplete last line, eg from a crash while it was written, is ignored.
+
+    A file is skipped when it is processed again if its entry matches the
+    input file, the ping number it would start at, and the length and
+    CRC32 of the existing output file, so an output which was torn or
+    written over since is corrected again. The end ping of the entry gives
+    the ping number to continue from.
+    The CRC32 is calculated by whoever wrote the output, ES60Writer keeps
+    it as it writes, or else by crc().
+
+    @version $Id$
+**/
+public class ES60Journal {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Name of the journal file.
+	 **/
+	public static final String NAME = "ES60Adjust.journal";
+
+	/**
+	 *  First line of the journal file.
+	 **/
+	public static final String HEADER = "# ES60Adjust journal";
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The journal file.
+	 **/
+	protected File file_;
+
+	/**
+	 *  Entries read or recorded, by absolute path of the input file.
+	 **/
+	protected Map<String, Entry> entries_ = new HashMap<String, Entry>();
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Journal for an output directory.
+	 *  @param dir Directory the output files are written to, null for the current directory.
+	 **/
+	public ES60Journal(File dir) {
+		file_ = new File(dir, NAME);
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Returns the normalized absolute path of a file, used to identify input files.
+	 *  @param file File.
+	 *  @return Path.
+	 **/
+	protected static String path(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Calculate the CRC32 of a file, for outputs not written by an ES60Writer.
+	 *  @param file File to read.
+	 *  @return CRC32 of the contents.
+	 *  @throws IOException if the file cannot be read.
+	 **/
+	public static long crc(File file)
+	throws IOException {
+		CRC32 crc = new CRC32();
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			channel.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 *  Read the journal, if there is one.
+	 *  @return Number of entries read.
+	 *  @throws IOException if the journal cannot be read.
+	 **/
+	public synchronized int load()
+	throws IOException {
+		entries_.clear();
+		if (!file_.isFile())
+			return 0;
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file_), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("#"))
+					continue;
+				String[] field = line.split("\t");
+				if (field.length != 7)
+					continue;
+				try {
+					Entry entry = new Entry(field[0], Long.parseLong(field[1]), field[2],
+							Integer.parseInt(field[3]), Integer.parseInt(field[4]),
+							Long.parseLong(field[5]), Long.parseLong(field[6], 16));
+					entries_.put(entry.input_, entry);
+				} catch (NumberFormatException nfe) {
+					/* incomplete line */
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return entries_.size();
+	}
+
+	/**
+	 *  Returns the entry for an input file if its output is already written.
+	 *  The output is read to check its CRC32 if everything else matches.
+	 *
+	 *  @param inFile Input file.
+	 *  @param outFile Output file.
+	 *  @param startPing Ping number of the first ping of the input file, -1 for any.
+	 *  @return Entry, or null if the file must be processed.
+	 **/
+	public Entry getEntry(File inFile, File outFile, int startPing) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries_.get(path(inFile));
+		}
+		if (entry == null ||
+				entry.inLength_ != inFile.length() ||
+				!entry.output_.equals(outFile.getName()) ||
+				(startPing >= 0 && entry.startPing_ != startPing) ||
+				!outFile.isFile() ||
+				entry.outLength_ != outFile.length())
+			return null;
+		try {
+			if (crc(outFile) != entry.crc_)
+				return null;
+		} catch (IOException ioe) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 *  Record that an output file has been written.
+	 *  The output file is forced to disk, then the entry is appended
+	 *  to the journal.
+	 *
+	 *  @param inFile Input file.
+	 *  @param outFile Output file, complete and closed.
+	 *  @param startPing Ping number of the first ping of the input file.
+	 *  @param endPing Ping number of the last ping of the input file.
+	 *  @param crc CRC32 of the output file, see ES60Writer.getCRC() and crc().
+	 *  @return The entry recorded.
+	 *  @throws IOException if the output cannot be forced or the journal written.
+	 **/
+	public Entry record(File inFile, File outFile, int startPing, int endPing, long crc)
+	throws IOException {
+		RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+		try {
+			out.getChannel().force(true);
+		} finally {
+			out.close();
+		}
+		Entry entry = new Entry(path(inFile), inFile.length(), outFile.getName(),
+				startPing, endPing, outFile.length(), crc);
+
+		synchronized (this) {
+			boolean created = !file_.exists();
+			FileOutputStream journal = new FileOutputStream(file_, true);
+			try {
+				if (created)
+					journal.write((HEADER + "\n").getBytes("UTF-8"));
+				journal.write((entry + "\n").getBytes("UTF-8"));
+				journal.getFD().sync();
+			} finally {
+				journal.close();
+			}
+			entries_.put(entry.input_, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 *  Delete the journal, once all files have been processed.
+	 *  @return true if there is no journal.
+	 **/
+	public synchronized boolean delete() {
+		entries_.clear();
+		return !file_.exists() || file_.delete();
+	}
+
+	/**
+	 *  Returns the journal file.
+	 *  @return The journal file.
+	 **/
+	public File getFile() {
+		return file_;
+	}
+
+	/* ---------- Inner Classes ---------- */
+
+	/* ----- Class Entry ----- */
+
+	/**
+	 *  Entry is an output file recorded in the journal.
+	 **/
+	public static class Entry {
+		/** Absolute path of the input file. */
+		protected String input_;
+		/** Length of the input file. */
+		protected long inLength_;
+		/** Name of the output file. */
+		protected String output_;
+		/** Ping number of the first ping. */
+		protected int startPing_;
+		/** Ping number of the last ping. */
+		protected int endPing_;
+		/** Length of the output file. */
+		protected long outLength_;
+		/** CRC32 of the output file. */
+		protected long crc_;
+
+		/**
+		 *  Create an Entry.
+		 **/
+		protected Entry(String input, long inLength, String output, int startPing, int endPing, long outLength, long crc) {
+			input_ = input;
+			inLength_ = inLength;
+			output_ = output;
+			startPing_ = startPing;
+			endPing_ = endPing;
+			outLength_ = outLength;
+			crc_ = crc;
+		}
+
+		/** @return Ping number of the first ping of the file. */
+		public int getStartPing() {
+			return startPing_;
+		}
+
+		/** @return Ping number of the last ping of the file. */
+		public int getEndPing() {
+			return endPing_;
+		}
+
+		/** @return Length of the output file. */
+		public long getLength() {
+			return outLength_;
+		}
+
+		/** @return CRC32 of the output file. */
+		public long getCRC() {
+			return crc_;
+		}
+
+		/**
+		 *  Returns the journal line for the entry, without a line terminator.
+		 **/
+		public String toString() {
+			return input_ + "\t" + inLength_ + "\t" + output_ + "\t" + startPing_ + "\t" + endPing_ + "\t" +
+				outLength_ + "\t" + Long.toHexString(crc_);
+		}
+	}
+}
+
+/*
+    Write the vision; make it plain on tablets,
+    so he may run who reads it.
+            Habakkuk 2:2
+*/
@@ -0,0 +1,326 @@
+/*
+    ES60PatchFile.java  au.csiro.marine.echo.ES60PatchFile
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import au.csiro.marine.echo.data.es60.ES60File;
+import au.csiro.marine.echo.data.es60.ES60Record;
+
+/**
+    ES60PatchFile is a small sidecar file recording how to correct a .raw file,
+    written in place of a corrected copy of the file.
+
+    Correcting a file only needs the ping number, in the triangle wave
+    sequence, of each ping in the file. Pings are numbered consecutively
+    from the start ping of the file, except where the sounder was reset and
+    the sequence restarted, so the patch is a list of segments, each
+    giving the index in the file of its first ping (counting pings from 0)
+    and the ping number of that ping.
+    A file corrected by ES60Adjust has one segment starting at ping 0.
+
+    The patch is applied by reading the file through an ES60AdjustedFile,
+    which corrects records as they are decoded, or written out as a
+    corrected file by ES60Adjust -apply.
+
+    The patch is saved next to the .raw file (with SUFFIX appended to the name)
+    in big endian order as:
+<pre>
+    int      MAGIC
+    int      VERSION
+    UTF      name of the .raw file
+    long     length of the .raw file
+    long     time of the first datagram (ms since 1970)
+    int      number of pings in the file, -1 if unknown
+    int      number of segments n
+    n * {
+    int      index of the first ping of the segment
+    int      ping number of that ping
+    }
+</pre>
+    The length and time of the first datagram identify the .raw file,
+    a patch is not applied to a file they do not match.
+    Unlike the modification time they survive copying the file.
+
+    @version $Id$
+**/
+public class ES60PatchFile {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Identifies a patch file, "ES6P".
+	 **/
+	public static final int MAGIC = 0x45533650;
+
+	/**
+	 *  Version of the patch file format.
+	 **/
+	public static final int VERSION = 1;
+
+	/**
+	 *  Appended to the name of the .raw file to give the name of the patch file.
+	 **/
+	public static final String SUFFIX = ".adj";
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The .raw file to be corrected.
+	 **/
+	protected File rawFile_;
+
+	/**
+	 *  The patch file.
+	 **/
+	protected File file_;
+
+	/**
+	 *  Number of pings in the .raw file, -1 if unknown.
+	 **/
+	protected int pings_ = -1;
+
+	/**
+	 *  Index in the file of the first ping of each segment, in increasing order.
+	 **/
+	protected int[] first_ = new int[0];
+
+	/**
+	 *  Ping number of the first ping of each segment.
+	 **/
+	protected int[] ping_ = new int[0];
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60PatchFile for the given .raw file.
+	 *  @param rawFile The file to be corrected.
+	 **/
+	public ES60PatchFile(File rawFile) {
+		rawFile_ = rawFile;
+		file_ = new File(rawFile.getPath() + SUFFIX);
+	}
+
+	/**
+	 *  Create an ES60PatchFile with a single segment.
+	 *  @param rawFile The file to be corrected.
+	 *  @param startPing Ping number of the first ping in the file.
+	 *  @param pings Number of pings in the file, -1 if unknown.
+	 **/
+	public ES60PatchFile(File rawFile, int startPing, int pings) {
+		this(rawFile);
+		addSegment(0, startPing);
+		pings_ = pings;
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Returns the time of the first datagram of the .raw file.
+	 *  @return Time in ms since 1970.
+	 *  @throws IOException if the file cannot be read.
+	 **/
+	protected long getRawTime()
+	throws IOException {
+		ES60File esFile = new ES60File(rawFile_);
+		try {
+			esFile.open();
+			ES60Record first = esFile.read();
+			return first.getTime().getTime();
+		} finally {
+			esFile.close();
+		}
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Add a segment, starting where the ping sequence was reset.
+	 *  Segments must be added in order.
+	 *
+	 *  @param first Index in the file of the first ping of the segment.
+	 *  @param ping Ping number of that ping.
+	 *  @throws IllegalArgumentException if first is not after the previous segment.
+	 **/
+	public void addSegment(int first, int ping) {
+		int n = first_.length;
+		if (n > 0 ? first <= first_[n - 1] : first < 0)
+			throw new IllegalArgumentException("Segment at ping " + first + " out of order");
+		first_ = Arrays.copyOf(first_, n + 1);
+		ping_ = Arrays.copyOf(ping_, n + 1);
+		first_[n] = first;
+		ping_[n] = ping;
+	}
+
+	/**
+	 *  Returns the ping number of a ping in the file.
+	 *  Pings before the first segment are numbered back from it.
+	 *
+	 *  @param index Index of the ping in the file, counting from 0.
+	 *  @return Ping number in the triangle wave sequence.
+	 **/
+	public int getPing(int index) {
+		int low = 0;
+		int high = first_.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (first_[mid] <= index)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		int segment = Math.max(low - 1, 0);
+		if (segment >= first_.length)
+			return index;
+		return ping_[segment] + index - first_[segment];
+	}
+
+	/**
+	 *  Returns the ping number of the first ping of the file following this one.
+	 *  @return Ping number following the last ping in the file.
+	 *  @throws IllegalStateException if the number of pings is unknown.
+	 **/
+	public int getNextPing() {
+		if (pings_ < 0)
+			throw new IllegalStateException("Number of pings in " + rawFile_ + " is unknown");
+		return getPing(pings_ - 1) + 1;
+	}
+
+	/**
+	 *  Read the patch file, if it exists and matches the .raw file.
+	 *
+	 *  @return true if the patch was read,
+	 *          false if there is no patch file or it is for a different file.
+	 *  @throws IOException if the patch file cannot be read or is corrupt.
+	 **/
+	public boolean load()
+	throws IOException {
+		if (!file_.isFile() || !rawFile_.isFile())
+			return false;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file_)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file_ + " is not an ES60 patch file");
+			if (in.readInt() != VERSION)
+				throw new IOException(file_ + " is an unsupported version");
+			in.readUTF();
+			if (in.readLong() != rawFile_.length() ||
+					in.readLong() != getRawTime())
+				return false;
+
+			int pings = in.readInt();
+			int n = in.readInt();
+			if (n < 0 || n > file_.length() / 8)
+				throw new IOException(file_ + " is corrupt");
+			first_ = new int[0];
+			ping_ = new int[0];
+			for (int i = 0; i < n; i++) {
+				int first = in.readInt();
+				addSegment(first, in.readInt());
+			}
+			pings_ = pings;
+			return true;
+		} catch (IllegalArgumentException iae) {
+			throw new IOException(file_ + " is corrupt");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 *  Write the patch file.
+	 *  @throws IOException if the .raw file cannot be read or the patch file written.
+	 **/
+	public void save()
+	throws IOException {
+		long time = getRawTime();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file_)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(rawFile_.getName());
+			out.writeLong(rawFile_.length());
+			out.writeLong(time);
+			out.writeInt(pings_);
+			out.writeInt(first_.length);
+			for (int i = 0; i < first_.length; i++) {
+				out.writeInt(first_[i]);
+				out.writeInt(ping_[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 *  Returns the patch file.
+	 *  @return The sidecar file.
+	 **/
+	public File getFile() {
+		return file_;
+	}
+
+	/**
+	 *  Returns the .raw file the patch is for.
+	 *  @return The file to be corrected.
+	 **/
+	public File getRawFile() {
+		return rawFile_;
+	}
+
+	/**
+	 *  Returns the number of pings in the .raw file.
+	 *  @return Number of pings, -1 if unknown.
+	 **/
+	public int getPings() {
+		return pings_;
+	}
+
+	/**
+	 *  Set the number of pings in the .raw file.
+	 *  @param pings Number of pings, -1 if unknown.
+	 **/
+	public void setPings(int pings) {
+		pings_ = pings;
+	}
+
+	/**
+	 *  Returns the number of segments.
+	 *  @return Number of segments.
+	 **/
+	public int getSegments() {
+		return first_.length;
+	}
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer(rawFile_.getName());
+		buf.append(" pings: ").append(pings_);
+		for (int i = 0; i < first_.length; i++)
+			buf.append(" [").append(first_[i]).append("]=").append(ping_[i]);
+		return buf.toString();
+	}
+}
+
+/*
+    The Lord will guide you always;
+    he will satisfy your needs in a sun-scorched land.
+            Isaiah 58:11
+*/
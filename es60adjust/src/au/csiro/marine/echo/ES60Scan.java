@@ -0,0 +1,700 @@
+/*
+    ES60Scan.java  au.csiro.marine.echo.ES60Scan
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import au.csiro.marine.echo.data.es60.ES60File;
+import au.csiro.marine.echo.data.es60.ES60NMEA;
+import au.csiro.marine.echo.data.es60.ES60RAW;
+import au.csiro.marine.echo.data.es60.ES60Record;
+
+/**
+    ES60Scan reads an ES60 .raw file to find the position in the triangle
+    wave of its first ping, without any user interface, so the analysis
+    of ES60Adjust's Info button can also run on a machine without a display.
+
+    getStats() collects the statistics of the file (times and positions
+    of its start and end, range of sample counts, pings of each channel)
+    and the fire pulse of its first pings, continuing into the next file
+    of a sequence if the file is too short.
+    analyse() passes the pings to an ES60Detector, which finds the best fit.
+    ES60Adjust.Analyse displays the statistics and results.
+
+    main() scans many files in parallel and writes the result for each
+    channel of each file as CSV or JSON.
+
+    @version $Id$
+**/
+public class ES60Scan {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Name of each ES60Detector result status in the output of main().
+	 **/
+	public static final String[] CATEGORY = {"found", "none", "unknown",
+		"edge-start", "edge-end", "down-slope", "up-slope"};
+
+	/**
+	 *  Column headings of the CSV output of main().
+	 **/
+	public static final String CSV_HEADER = "file,channel,pings,initial,final,status,deviation,flat,equal";
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  ES60File to scan.
+	 **/
+	protected ES60File file_;
+
+	/**
+	 *  Next file of the sequence, null if none or not yet created.
+	 **/
+	protected ES60Scan next_;
+
+	/**
+	 *  Files of the sequence, when the next file is created as it is needed.
+	 **/
+	protected File[] sequence_;
+
+	/**
+	 *  Index of this file in sequence_.
+	 **/
+	protected int index_;
+
+	/**
+	 *  Statistics of this file have been collected, or are not wanted.
+	 **/
+	protected boolean haveStats_;
+
+	/**
+	 *  Highest channel number in this file.
+	 **/
+	protected int maxChannel_ = ES60Detector.MAX_CHANNELS;
+
+	/**
+	 *  Number of pings of each channel in this file, null until the whole file is read.
+	 **/
+	protected int[] pings_;
+
+	/* --- statistics --- */
+
+	/** Time of the first datagram. */
+	protected Date start_;
+	/** Time of the last datagram. */
+	protected Date end_;
+	/** First and last positions, null if none. */
+	protected ES60NMEA firstPos_;
+	protected ES60NMEA lastPos_;
+	/** Bounds of the positions. */
+	protected double north_ = Double.NaN;
+	protected double south_ = Double.NaN;
+	protected double east_ = Double.NaN;
+	protected double west_ = Double.NaN;
+	/** Least and most samples of a ping. */
+	protected int minCount_;
+	protected int maxCount_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Scan of a file.
+	 *  @param file File to scan.
+	 *  @param next Scan of the next file of the sequence, null if none.
+	 **/
+	public ES60Scan(ES60File file, ES60Scan next) {
+		file_ = file;
+		next_ = next;
+	}
+
+	/**
+	 *  Create an ES60Scan of a file of a sequence.
+	 *  Scans of the following files are created as they are needed.
+	 *  @param sequence Files of the sequence, in order.
+	 *  @param index Index of the file to scan.
+	 **/
+	public ES60Scan(File[] sequence, int index) {
+		this(new ES60File(sequence[index]), null);
+		sequence_ = sequence;
+		index_ = index;
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Read the file, collecting its statistics, if haveStats_ is false,
+	 *  and integrating the samples from first to last (inclusive) of
+	 *  each ping of each channel. Reading the file once does both.
+	 *
+	 *  If there are too few pings in this file, but there is a next file,
+	 *  the remainder of the pings are gathered from the next file.
+	 *
+	 *  @param first First sample to include in search for triangle wave,
+	 *               should be within fire pulse.
+	 *  @param last Last sample to include in search for triangle wave,
+	 *               must be greater than first and should still be within fire pulse.
+	 *  @param search Maximum number of pings to include in calculation.
+	 *  @param skip Number of initial pings to skip before starting calculation.
+	 *  @param pings Count of pings read for each channel. (updated by this method)
+	 *  @param nullpings Count of pings with insufficient samples for each channel. (updated by this method)
+	 *  @param integrate Sum of sample range for all pings for each channel. (updated by this method)
+	 *  @param pingVal Sum of sample range for each ping for each channel. (updated by this method)
+	 *  @return number of pings successfully read into pingVal.
+	 *  @throws IOException if this or a following file cannot be read.
+	 **/
+	public int getStats(int first, int last, int search, int skip, int[] pings, int[] nullpings, int[] integrate, int[][] pingVal)
+	throws IOException {
+		ES60NMEA firstPos = null;
+		ES60NMEA lastPos = null;
+		int minCount = Integer.MAX_VALUE;
+		int maxCount = 0;
+		double north = Double.NaN;
+		double south = Double.NaN;
+		double east = Double.NaN;
+		double west = Double.NaN;
+
+		int[] pingtotal = new int[maxChannel_];
+
+		/*  can we skip this file? */
+		if (pings_ != null && skip > 0)
+			for (int i = 0; i < pings_.length; i++) {
+				if (pings_[i] > 0 && pings_[i] <= skip) {
+					if (getNext() == null)
+						return 0;
+					else
+						return getNext().getStats(first, last, search, skip - pings_[i], pings, nullpings, integrate, pingVal);
+				}
+			}
+
+		/* read the file */
+		ES60Record con;
+		ES60Record rec;
+		try {
+			file_.setMapped(true);
+			file_.open();
+			rec = file_.read();
+			con = rec;
+
+			while (true) {
+				/* get next record from file */
+				if (rec instanceof ES60RAW) {
+					ES60RAW rrec = (ES60RAW)rec;
+					int channel = rrec.getChannel();
+					if (pingVal[channel] == null)
+						pingVal[channel] = new int[search];
+
+					if (++pingtotal[channel] > skip && pings[channel] < search)
+						try {
+							pingVal[channel][pings[channel]]= rrec.getSum(first, last);
+							integrate[channel] += pingVal[channel][pings[channel]];
+							pings[channel]++;
+						} catch (ES60RAW.InsufficientSamplesException ise) {
+							pingVal[channel][pings[channel]] = 0;
+							nullpings[channel]++;
+							pings[channel]++;
+						} catch (ArrayIndexOutOfBoundsException aioobe) {
+							aioobe.printStackTrace();
+						}
+
+						else if (haveStats_ && pings[channel] > search)
+							break;
+
+					if (!haveStats_) {
+						int count = rrec.getCount();
+						if (count > maxCount)
+							maxCount = count;
+						if (count < minCount)
+							minCount = count;
+					}
+
+					/* Get position stats if wanted */
+				} else if (!haveStats_ && rec instanceof ES60NMEA) {
+					ES60NMEA nrec = (ES60NMEA)rec;
+					if (nrec.hasPos()) {
+						lastPos = nrec;
+						if (firstPos == null) {
+							firstPos = nrec;
+							north = south = nrec.getLatitude();
+							east = west = nrec.getLongitude();
+						} else {
+							double lat = nrec.getLatitude();
+							double lon = nrec.getLongitude();
+							if (lat > north)
+								north = lat;
+							if (lat < south)
+								south = lat;
+							if (lon > east)
+								east = lon;
+							if (lon < west)
+								west = lon;
+						}
+					}
+				}
+				if (!file_.hasNext())
+					break;
+				rec = file_.read();
+			}
+		} finally {
+			file_.close();
+		}
+
+		/* determine maximum channel number */
+		int maxChannel = 0;
+		int maxPings = 0;
+		for (int i = 0; i < pings.length; i++) {
+			if (pings[i] > 0)
+				maxChannel = i + 1;
+			if (pings[i] > maxPings)
+				maxPings = pings[i];
+		}
+
+		if (maxPings > 0)
+			maxChannel_ = maxChannel;
+
+		/* keep stats */
+		if (!haveStats_) {
+			start_ = con.getTime();
+			end_ = rec.getTime();
+			firstPos_ = firstPos;
+			lastPos_ = lastPos;
+			north_ = north;
+			south_ = south;
+			east_ = east;
+			west_ = west;
+			minCount_ = minCount;
+			maxCount_ = maxCount;
+
+			pings_ = new int[maxChannel_];
+			for (int i = 0; i < maxChannel_; i++)
+				pings_[i] = pingtotal[i];
+
+			haveStats_ = true;
+		}
+
+		/* Do we need the next file? */
+		if (search > maxPings) {
+
+			/* We have ping information for this file, save it if we haven't already */
+			if (pings_ == null) {
+				pings_ = new int[maxChannel_];
+				for (int i = 0; i < maxChannel_; i++)
+					pings_[i] = pingtotal[i];
+			}
+
+			/* we have all the data we can get */
+			if (getNext() == null)
+				return maxPings;
+
+			/* get more data */
+			if (skip > maxPings)
+				skip -= maxPings;
+			else
+				skip = 0;
+			return getNext().getStats(first, last, search, skip, pings, nullpings, integrate, pingVal);
+		}
+
+		/* We have all the data we want */
+		return search;
+	}
+
+	/**
+	 *  Read the pings of the file, and of following files if needed,
+	 *  with the parameters of a detector and find the best fit.
+	 *
+	 *  @param detector Detector giving the parameters, whose detect() is called.
+	 *  @return The detector.
+	 *  @throws IOException if this or a following file cannot be read.
+	 **/
+	public ES60Detector analyse(ES60Detector detector)
+	throws IOException {
+		int[] pings = new int[maxChannel_];
+		int[] nullpings = new int[maxChannel_];
+		int[] integrate = new int[maxChannel_];
+		int[][] pingVal = new int[maxChannel_][];
+
+		int maxPings = getStats(detector.getFirst(), detector.getLast(), detector.getSearch(), detector.getSkip(),
+				pings, nullpings, integrate, pingVal);
+		detector.setData(maxPings, pings, nullpings, integrate, pingVal);
+		detector.detect();
+		return detector;
+	}
+
+	/**
+	 *  Returns the scan of the next file of the sequence.
+	 *  @return Next file, or null if this is the last.
+	 **/
+	public ES60Scan getNext() {
+		if (next_ == null && sequence_ != null && index_ + 1 < sequence_.length)
+			next_ = new ES60Scan(sequence_, index_ + 1);
+		return next_;
+	}
+
+	/**
+	 *  Returns the file scanned.
+	 *  @return The file.
+	 **/
+	public ES60File getFile() {
+		return file_;
+	}
+
+	/**
+	 *  Only read the pings needed, without collecting the statistics of the file.
+	 *  @param haveStats Are the statistics not wanted?
+	 **/
+	public void setHaveStats(boolean haveStats) {
+		haveStats_ = haveStats;
+	}
+
+	/**
+	 *  Returns the number of the highest channel plus one.
+	 *  @return Number of channels, MAX_CHANNELS until the file is read.
+	 **/
+	public int getMaxChannel() {
+		return maxChannel_;
+	}
+
+	/**
+	 *  Returns the number of pings of each channel in the file.
+	 *  @return Pings indexed by channel, null until the whole file is read.
+	 **/
+	public int[] getPings() {
+		return pings_;
+	}
+
+	/** @return Time of the first datagram, null if the statistics have not been collected. */
+	public Date getStart() {
+		return start_;
+	}
+
+	/** @return Time of the last datagram, null if the statistics have not been collected. */
+	public Date getEnd() {
+		return end_;
+	}
+
+	/** @return First position, null if none. */
+	public ES60NMEA getFirstPos() {
+		return firstPos_;
+	}
+
+	/** @return Last position, null if none. */
+	public ES60NMEA getLastPos() {
+		return lastPos_;
+	}
+
+	/** @return Most northerly latitude. */
+	public double getNorth() {
+		return north_;
+	}
+
+	/** @return Most southerly latitude. */
+	public double getSouth() {
+		return south_;
+	}
+
+	/** @return Most easterly longitude. */
+	public double getEast() {
+		return east_;
+	}
+
+	/** @return Most westerly longitude. */
+	public double getWest() {
+		return west_;
+	}
+
+	/** @return Least number of samples of a ping. */
+	public int getMinCount() {
+		return minCount_;
+	}
+
+	/** @return Most samples of a ping. */
+	public int getMaxCount() {
+		return maxCount_;
+	}
+
+	public String toString() {
+		return file_.toString();
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Scan a file, catching any error.
+	 *
+	 *  @param files Files to scan.
+	 *  @param index Index of the file to scan.
+	 *  @param sequence Are the files a sequence, so pings may be taken from the next file?
+	 *  @param params Detector giving the parameters.
+	 *  @param json Format as JSON rather than CSV?
+	 *  @return The results formatted for output, or null if the file could not be read.
+	 **/
+	protected static String scan(File[] files, int index, boolean sequence, ES60Detector params, boolean json) {
+		File file = files[index];
+		ES60Scan scan = sequence ? new ES60Scan(files, index) : new ES60Scan(new ES60File(file), null);
+		ES60Detector detector = new ES60Detector(params.getFirst(), params.getLast(), params.getAvgWindow(),
+				params.getWindow(), params.getSearch(), params.getSkip(), params.getAlgorithm());
+		try {
+			scan.analyse(detector);
+		} catch (IOException ioe) {
+			System.err.println(file + ": " + ioe.getMessage());
+			return null;
+		} catch (RuntimeException re) {
+			System.err.println(file + ": " + re);
+			return null;
+		}
+		return format(file, scan, detector, json);
+	}
+
+	/**
+	 *  Format the results of a file.
+	 *  Each channel is a CSV line, see CSV_HEADER,
+	 *  or all channels a JSON object.
+	 *
+	 *  @param file File scanned.
+	 *  @param scan Scan of the file.
+	 *  @param detector Detector holding the results.
+	 *  @param json Format as JSON rather than CSV?
+	 *  @return The results, each line terminated.
+	 **/
+	protected static String format(File file, ES60Scan scan, ES60Detector detector, boolean json) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
+		StringBuffer buf = new StringBuffer();
+		if (json) {
+			buf.append("  {\"file\": ").append(quote(file.getPath(), '"'));
+			if (scan.getStart() != null)
+				buf.append(", \"start\": \"").append(dateFormat.format(scan.getStart())).
+					append("\", \"end\": \"").append(dateFormat.format(scan.getEnd())).append('"');
+			buf.append(", \"pings\": ").append(detector.getPings()).append(", \"channels\": [");
+		}
+
+		int[] filePings = scan.getPings();
+		boolean any = false;
+		for (int channel = 0; channel < ES60Detector.MAX_CHANNELS; channel++) {
+			ES60Detector.Result result = detector.getResult(channel);
+			if (result == null)
+				continue;
+			int pings = (filePings != null && channel < filePings.length) ? filePings[channel] : -1;
+			String status = CATEGORY[result.getStatus(pings)];
+			if (json)
+				buf.append(any ? "," : "").append("\n    {\"channel\": ").append(channel).
+					append(", \"pings\": ").append(pings).
+					append(", \"initial\": ").append(result.getInitial()).
+					append(", \"final\": ").append(result.getFinal(pings)).
+					append(", \"status\": \"").append(status).
+					append("\", \"deviation\": ").append(result.getDeviation()).
+					append(", \"flat\": ").append(result.getZeroDeviation()).
+					append(", \"equal\": ").append(result.getCount()).append('}');
+			else
+				buf.append(quote(file.getPath(), ',')).append(',').append(channel).
+					append(',').append(pings).
+					append(',').append(result.getInitial()).
+					append(',').append(result.getFinal(pings)).
+					append(',').append(status).
+					append(',').append(result.getDeviation()).
+					append(',').append(result.getZeroDeviation()).
+					append(',').append(result.getCount()).append('\n');
+			any = true;
+		}
+		if (json)
+			buf.append(any ? "\n  ]}" : "]}");
+		return buf.toString();
+	}
+
+	/**
+	 *  Quote a string for CSV or JSON, if needed.
+	 *  @param s String.
+	 *  @param format ',' for CSV, '"' for JSON.
+	 *  @return CSV field or JSON string.
+	 **/
+	protected static String quote(String s, char format) {
+		StringBuffer buf = new StringBuffer("\"");
+		if (format == ',') {
+			if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0)
+				return s;
+			buf.append(s.replace("\"", "\"\""));
+		} else
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '"' || c == '\\')
+					buf.append('\\').append(c);
+				else if (c < ' ')
+					buf.append(String.format("\\u%04x", (int)c));
+				else
+					buf.append(c);
+			}
+		return buf.append('"').toString();
+	}
+
+	/**
+	 *  Output a usage message and exit.
+	 **/
+	protected static void usage() {
+		System.err.println("usage: java au.csiro.marine.echo.ES60Scan [-json] [-o file] [-threads n] [-sequence]");
+		System.err.println("           [-samples first last] [-average n] [-window n] [-pings n] [-skip n] [-algorithm n] file.raw...");
+		System.err.println("    -json - write JSON rather than CSV");
+		System.err.println("    -o file - write to file rather than stdout");
+		System.err.println("    -threads n - scan n files at once (default one per processor)");
+		System.err.println("    -sequence - files are consecutive, take pings from the next file if a file is short");
+		System.err.println("    -samples first last - samples of the fire pulse (default 0 4)");
+		System.err.println("    -average n - pings either side in the running mean (default 5)");
+		System.err.println("    -window n - candidates summed for the best fit (default 1)");
+		System.err.println("    -pings n - pings to analyse (default " + ES60Adjust.WAVE + ")");
+		System.err.println("    -skip n - initial pings to skip (default 10)");
+		System.err.print("    -algorithm n - weighting of deviations (default 0)");
+		for (int i = 0; i < ES60Detector.ALGORITHMS.length; i++)
+			System.err.print(" " + i + " " + ES60Detector.ALGORITHMS[i]);
+		System.err.println();
+		System.err.println("Writes the initial and final ping numbers in the triangle wave of each channel of each file,");
+		System.err.println("status " + Arrays.toString(CATEGORY) + " and the deviations of the best fit and a flat mean.");
+		System.exit(1);
+	}
+
+	/* ---------- Static Public Methods ---------- */
+
+	/**
+	 *  Scan files in parallel and write the results of each channel of
+	 *  each file, in the order of the files, see usage().
+	 *  Exits with status 1 if a file could not be read.
+	 *
+	 *<pre>
+	 *  usage: java au.csiro.marine.echo.ES60Scan [-json] [-o file] [-threads n] [-sequence] [parameters] file.raw...
+	 *</pre>
+	 **/
+	public static void main(String[] args) {
+		boolean json = false;
+		boolean sequence = false;
+		int threads = 0;
+		PrintStream out = System.out;
+		int[] param = {0, 4, 5, 1, ES60Adjust.WAVE, 10, 0};
+
+		/* options */
+		int arg = 0;
+		try {
+			for (; arg < args.length && args[arg].startsWith("-") && args[arg].length() > 1; arg++) {
+				String option = args[arg];
+				if ("-json".equals(option))
+					json = true;
+				else if ("-csv".equals(option))
+					json = false;
+				else if ("-sequence".equals(option))
+					sequence = true;
+				else if ("-o".equals(option))
+					out = new PrintStream(args[++arg], "UTF-8");
+				else if ("-threads".equals(option))
+					threads = Integer.parseInt(args[++arg]);
+				else if ("-samples".equals(option)) {
+					param[0] = Integer.parseInt(args[++arg]);
+					param[1] = Integer.parseInt(args[++arg]);
+				} else if ("-average".equals(option))
+					param[2] = Integer.parseInt(args[++arg]);
+				else if ("-window".equals(option))
+					param[3] = Integer.parseInt(args[++arg]);
+				else if ("-pings".equals(option))
+					param[4] = Integer.parseInt(args[++arg]);
+				else if ("-skip".equals(option))
+					param[5] = Integer.parseInt(args[++arg]);
+				else if ("-algorithm".equals(option)) {
+					param[6] = Integer.parseInt(args[++arg]);
+					if (param[6] < 0 || param[6] >= ES60Detector.ALGORITHMS.length)
+						usage();
+				} else
+					usage();
+			}
+		} catch (ArrayIndexOutOfBoundsException aioobe) {
+			usage();
+		} catch (NumberFormatException nfe) {
+			usage();
+		} catch (IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(1);
+		}
+		if (arg >= args.length)
+			usage();
+
+		final File[] files = new File[args.length - arg];
+		for (int i = arg; i < args.length; i++)
+			files[i - arg] = new File(args[i]);
+		final ES60Detector params = new ES60Detector(param[0], param[1], param[2], param[3], param[4], param[5], param[6]);
+		final boolean fJson = json;
+		final boolean fSequence = sequence;
+
+		/* scan files, writing the results in order as they finish */
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.length));
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < files.length; i++) {
+			final int index = i;
+			results.add(pool.submit(new Callable<String>() {
+				public String call() {
+					return scan(files, index, fSequence, params, fJson);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int failed = 0;
+		boolean first = true;
+		if (json)
+			out.print("{\"parameters\": {\"first\": " + params.getFirst() + ", \"last\": " + params.getLast() +
+					", \"average\": " + params.getAvgWindow() + ", \"window\": " + params.getWindow() +
+					", \"pings\": " + params.getSearch() + ", \"skip\": " + params.getSkip() +
+					", \"algorithm\": " + quote(ES60Detector.ALGORITHMS[params.getAlgorithm()], '"') + "},\n \"files\": [");
+		else
+			out.println(CSV_HEADER);
+		try {
+			for (Future<String> result : results) {
+				String text = result.get();
+				if (text == null)
+					failed++;
+				else if (json) {
+					out.print(first ? "\n" : ",\n");
+					out.print(text);
+					first = false;
+				} else
+					out.print(text);
+				out.flush();
+			}
+		} catch (InterruptedException ie) {
+			pool.shutdownNow();
+			System.exit(1);
+		} catch (ExecutionException ee) {
+			pool.shutdownNow();
+			ee.getCause().printStackTrace();
+			System.exit(1);
+		}
+		if (json)
+			out.println("\n]}");
+		out.close();
+		System.exit(failed > 0 ? 1 : 0);
+	}
+}
+
+/*
+    Examine yourselves, to see whether you are in the faith.
+    Test yourselves.
+            2 Corinthians 13:5
+*/
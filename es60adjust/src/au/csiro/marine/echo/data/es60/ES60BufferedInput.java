@@ -0,0 +1,372 @@
+/*
+    ES60BufferedInput.java  au.csiro.marine.echo.data.es60.ES60BufferedInput
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    ES60BufferedInput is a buffered DataInput which keeps track of its
+    position in the underlying file.
+
+    Wrapping a file in a BufferedInputStream halves the time taken to read it
+    (see ES60File revision 1.4) but loses the file pointer, and with it the
+    ability to index the file and to read(long) a record.
+    ES60BufferedInput buffers reads in the same way but keeps the logical
+    file offset itself so it can be used wherever a RandomAccessFile was.
+
+    Sequential reads refill the whole buffer.
+    The first read after a seek() outside the buffer only fetches
+    readAhead bytes (or the size of the read, if larger), so jumping around
+    the file to read headers doesn't read a full buffer for each header.
+
+    Reads use FileChannel.read(ByteBuffer, long) which does not depend on
+    the position of the channel, so any number of ES60BufferedInputs may
+    share one channel.
+
+    @version $Id$
+**/
+public class ES60BufferedInput implements ES60Input {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Default size of the buffer.
+	 **/
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 *  Default number of bytes to read after a seek.
+	 **/
+	public static final int READ_AHEAD = 1 << 12;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The file being read, closed by close() if it was opened here.
+	 **/
+	protected RandomAccessFile raFile_;
+
+	/**
+	 *  Channel used to read the file.
+	 **/
+	protected FileChannel channel_;
+
+	/**
+	 *  Length of the file when last checked.
+	 **/
+	protected long length_;
+
+	/**
+	 *  Buffered data.
+	 **/
+	protected byte[] buf_;
+
+	/**
+	 *  ByteBuffer wrapping buf_, used to read from the channel and decode values.
+	 **/
+	protected ByteBuffer buffer_;
+
+	/**
+	 *  File offset of buf_[0].
+	 **/
+	protected long bufStart_;
+
+	/**
+	 *  Number of valid bytes in buf_.
+	 **/
+	protected int bufLen_;
+
+	/**
+	 *  Current (logical) file offset.
+	 **/
+	protected long pos_;
+
+	/**
+	 *  Number of bytes to read after a seek.
+	 **/
+	protected int readAhead_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60BufferedInput reading an open RandomAccessFile
+	 *  with the default buffer size and read-ahead.
+	 *  The RandomAccessFile will be closed when this input is closed.
+	 *
+	 *  @param raFile File to read.
+	 *  @throws IOException if the length of the file cannot be determined.
+	 **/
+	public ES60BufferedInput(RandomAccessFile raFile)
+	throws IOException {
+		this(raFile.getChannel(), BUFFER_SIZE, READ_AHEAD);
+		raFile_ = raFile;
+	}
+
+	/**
+	 *  Create an ES60BufferedInput reading a FileChannel.
+	 *  The channel is not closed by close().
+	 *
+	 *  @param channel Channel to read.
+	 *  @param bufferSize Size of the buffer in bytes.
+	 *  @param readAhead Number of bytes to read after a seek, no more than bufferSize.
+	 *  @throws IOException if the size of the channel cannot be determined.
+	 **/
+	public ES60BufferedInput(FileChannel channel, int bufferSize, int readAhead)
+	throws IOException {
+		if (bufferSize < 16)
+			bufferSize = 16;
+		if (readAhead < 1 || readAhead > bufferSize)
+			readAhead = bufferSize;
+		channel_ = channel;
+		length_ = channel.size();
+		buf_ = new byte[bufferSize];
+		buffer_ = ByteBuffer.wrap(buf_);
+		readAhead_ = readAhead;
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Ensure n bytes from the current position are in buf_
+	 *  and return the index in buf_ of the current position.
+	 *
+	 *  @param n Number of bytes required, must not exceed the buffer size.
+	 *  @return Index in buf_ of the current position.
+	 *  @throws EOFException if the file does not contain n more bytes.
+	 **/
+	protected int fill(int n)
+	throws IOException {
+		long end = bufStart_ + bufLen_;
+		if (pos_ >= bufStart_ && pos_ + n <= end)
+			return (int)(pos_ - bufStart_);
+
+		int want;
+		if (pos_ >= bufStart_ && pos_ <= end) {
+			/* sequential, keep what we have and fill the rest of the buffer */
+			int keep = (int)(end - pos_);
+			System.arraycopy(buf_, (int)(pos_ - bufStart_), buf_, 0, keep);
+			bufLen_ = keep;
+			want = buf_.length;
+		} else {
+			/* after a seek */
+			bufLen_ = 0;
+			want = Math.max(n, readAhead_);
+		}
+		bufStart_ = pos_;
+
+		while (bufLen_ < n) {
+			buffer_.limit(want);
+			buffer_.position(bufLen_);
+			int got = channel_.read(buffer_, bufStart_ + bufLen_);
+			if (got < 0)
+				throw new EOFException();
+			bufLen_ += got;
+		}
+		return 0;
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Returns the size of the buffer.
+	 *  @return size of the buffer in bytes.
+	 **/
+	public int getBufferSize() {
+		return buf_.length;
+	}
+
+	/**
+	 *  Returns the number of bytes read after a seek.
+	 *  @return read-ahead in bytes.
+	 **/
+	public int getReadAhead() {
+		return readAhead_;
+	}
+
+	/* ----- Interface ES60Input ----- */
+
+	public long getFilePointer() {
+		return pos_;
+	}
+
+	public void seek(long pos)
+	throws IOException {
+		if (pos < 0)
+			throw new IOException("Negative seek offset " + pos);
+		pos_ = pos;
+	}
+
+	public long length()
+	throws IOException {
+		length_ = channel_.size();
+		return length_;
+	}
+
+	public void close()
+	throws IOException {
+		bufLen_ = 0;
+		if (raFile_ != null) {
+			raFile_.close();
+			raFile_ = null;
+		}
+	}
+
+	/* ----- Interface DataInput ----- */
+
+	public void readFully(byte[] b)
+	throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	public void readFully(byte[] b, int off, int len)
+	throws IOException {
+		/* whatever is already buffered */
+		long end = bufStart_ + bufLen_;
+		if (pos_ >= bufStart_ && pos_ < end) {
+			int n = (int)Math.min(len, end - pos_);
+			System.arraycopy(buf_, (int)(pos_ - bufStart_), b, off, n);
+			pos_ += n;
+			off += n;
+			len -= n;
+		}
+		if (len == 0)
+			return;
+
+		/* large reads go straight to the caller's array */
+		if (len >= buf_.length) {
+			ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+			while (dst.hasRemaining()) {
+				int got = channel_.read(dst, pos_);
+				if (got < 0)
+					throw new EOFException();
+				pos_ += got;
+			}
+			return;
+		}
+
+		int i = fill(len);
+		System.arraycopy(buf_, i, b, off, len);
+		pos_ += len;
+	}
+
+	public int skipBytes(int n)
+	throws IOException {
+		if (n <= 0)
+			return 0;
+		if (pos_ + n > length_)
+			length();
+		long skip = Math.max(0, Math.min(n, length_ - pos_));
+		pos_ += skip;
+		return (int)skip;
+	}
+
+	public boolean readBoolean()
+	throws IOException {
+		return readByte() != 0;
+	}
+
+	public byte readByte()
+	throws IOException {
+		int i = fill(1);
+		pos_++;
+		return buf_[i];
+	}
+
+	public int readUnsignedByte()
+	throws IOException {
+		return readByte() & 0xff;
+	}
+
+	public short readShort()
+	throws IOException {
+		int i = fill(2);
+		pos_ += 2;
+		return buffer_.getShort(i);
+	}
+
+	public int readUnsignedShort()
+	throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	public char readChar()
+	throws IOException {
+		int i = fill(2);
+		pos_ += 2;
+		return buffer_.getChar(i);
+	}
+
+	public int readInt()
+	throws IOException {
+		int i = fill(4);
+		pos_ += 4;
+		return buffer_.getInt(i);
+	}
+
+	public long readLong()
+	throws IOException {
+		int i = fill(8);
+		pos_ += 8;
+		return buffer_.getLong(i);
+	}
+
+	public float readFloat()
+	throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	public double readDouble()
+	throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 *  Reads a line of text, as for RandomAccessFile.readLine().
+	 **/
+	public String readLine()
+	throws IOException {
+		StringBuffer line = null;
+		try {
+			while (true) {
+				int c = readUnsignedByte();
+				if (line == null)
+					line = new StringBuffer();
+				if (c == '\n')
+					break;
+				if (c == '\r') {
+					int i = fill(1);
+					if (buf_[i] == '\n')
+						pos_++;
+					break;
+				}
+				line.append((char)c);
+			}
+		} catch (EOFException eof) {}
+		return line == null ? null : line.toString();
+	}
+
+	public String readUTF()
+	throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
+
+/*
+    Ask the Lord to bless your plans,
+    and you will be successful in carrying them out.
+            Proverbs 16:3
+*/
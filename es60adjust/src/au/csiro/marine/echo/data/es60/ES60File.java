@@ -48,13 +48,22 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Vector;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 //import au.csiro.marine.util.TrackPoint;
 
@@ -62,12 +71,15 @@ import java.util.logging.Logger;
     ES60File is a class representing the data held in an ES60 .raw or .out file.
     
     20060404 converting to use RandomAccessFile to allow viewing of echograms.
+    Files are read through an ES60BufferedInput, which buffers the 
+    RandomAccessFile but still knows the file pointer of each record,
+    or through an ES60MappedInput if setMapped(true) is used.
 
     @version $Id: ES60File.java 401 2011-08-19 06:05:37Z  $
     @author Gordon Keith
 **/
 public class ES60File 
-   implements Comparable<ES60File> {
+   implements Comparable<ES60File>, Iterable<ES60Record> {
 
    /* ---------- Protected Members ---------- */
    /**
@@ -91,6 +103,11 @@ public class ES60File
     **/
    protected DataInputStream stream_;
 
+   /**
+    *  Stream to read when there is no file_, System.in if null.
+    **/
+   protected InputStream input_;
+
    /**
     *  RandomAccessFile used to read file_
     */
@@ -101,6 +118,24 @@ public class ES60File
     */
    protected DataInput in_;
    
+   /**
+    *  Read file_ through a memory mapping rather than the RandomAccessFile?
+    *  @see ES60MappedInput
+    */
+   protected boolean mapped_;
+   
+   /**
+    *  Size of the buffer used to read file_.
+    *  @see ES60BufferedInput
+    */
+   protected int bufferSize_ = ES60BufferedInput.BUFFER_SIZE;
+   
+   /**
+    *  Number of bytes read after a seek.
+    *  @see ES60BufferedInput
+    */
+   protected int readAhead_ = ES60BufferedInput.READ_AHEAD;
+   
    /**
     *  Configuration record for this file.
     *  A CON0 records should always appear as the first record of a ES60RAW file
@@ -115,22 +150,54 @@ public class ES60File
    protected ES60NMEA lastNMEA_;
    
    /**
-    *  Array of Vectors of Integers containing filePointers for records.
-    *  When complete each Vector provides an index to all the RAW records for a channel.
+    *  Array of ES60OffsetIndex containing filePointers for records.
+    *  When complete each ES60OffsetIndex provides an index to all the RAW records for a channel.
     *  channel 0 will contain NMEA data if readPoint was used to scan the file.
     *  
     *  The index will only be correctly populated if the entire file is read sequentially once.
     *  The suggested method is the use a loop containing readPoint.
     *  
-    *  Once EndOfFile is reached indices_ will be transferred to index_.
+    *  Once EndOfFile is reached indices_ will be closed and transferred to index_.
     */
-   protected Vector<Long>[] indices_;
+   protected ES60OffsetIndex[] indices_;
    
    /**
     *  Array of indices to the file.
     *  Each value is the file pointer of a record for that channel.
     */
-   protected long[][] index_;
+   protected ES60OffsetIndex[] index_;
+   
+   /**
+    *  Save the index in, and load it from, an ES60IndexFile next to the file?
+    *  Off unless setSidecar(true) is called, as it writes next to the data.
+    *  @see ES60IndexFile
+    */
+   protected boolean sidecar_ = false;
+   
+   /**
+    *  File pointer of an incomplete datagram at the end of the file, 
+    *  or -1 if none has been found.
+    *  @see #hasNext()
+    */
+   protected long truncated_ = -1;
+   
+   /**
+    *  Input used by each thread calling fetch().
+    */
+   protected final ThreadLocal<ES60BufferedInput> fetchInput_ = new ThreadLocal<ES60BufferedInput>();
+   
+   /**
+    *  Buffer shared by the views returned by readView().
+    */
+   protected ByteBuffer viewBuffer_;
+   
+   /**
+    *  Reusable views returned by readView().
+    */
+   protected ES60View view_;
+   protected ES60View.RAW rawView_;
+   protected ES60View.NMEA nmeaView_;
+   protected ES60View.CON conView_;
    
    protected Date start_;
    
@@ -173,6 +240,19 @@ public class ES60File
 	   survey_ = survey;
    }
 
+   /**
+    *  Create an ES60File reading datagrams from a stream, such as System.in.
+    *
+    *  The stream can only be read sequentially, so the methods which seek or
+    *  index the file are not available.
+    *
+    *  @param in Stream containing ES60 datagrams.
+    **/
+   public ES60File(InputStream in) {
+	   this((File)null, null);
+	   input_ = in;
+   }
+
    /* ---------- Public Methods ---------- */
 
    /**
@@ -183,7 +263,7 @@ public class ES60File
    public void open() 
    throws IOException {
 	   if (file_ == null) {
-		   BufferedInputStream buf = new BufferedInputStream(System.in);
+		   BufferedInputStream buf = new BufferedInputStream(input_ == null ? System.in : input_, bufferSize_);
 		   stream_ = new DataInputStream(buf);
 		   in_ = stream_;
 		   
@@ -200,12 +280,15 @@ public class ES60File
 		   buf.reset();
 	   } else {
 		   raFile_ = new RandomAccessFile(file_, "r");
-		   in_ = raFile_;
+		   if (mapped_)
+			   in_ = new ES60MappedInput(raFile_.getChannel());
+		   else
+			   in_ = new ES60BufferedInput(raFile_.getChannel(), bufferSize_, readAhead_);
 		   int len = in_.readInt();
 		   
 		   int swaplen = ES60Record.swap(len);
 		   swap_ = (len < 0) || ! (swaplen < 0 || len < swaplen);
-		   raFile_.seek(0);
+		   seek(0);
 	   }
 	   
    }
@@ -218,7 +301,6 @@ public class ES60File
     *  @param index Open this file for indexing.
     *  @throws IOException if it is unable to open the underlying File.
     **/
-   @SuppressWarnings("unchecked")
 public void open(boolean index) 
    throws IOException {
 	   open();
@@ -227,9 +309,11 @@ public void open(boolean index)
 		   start_ = config.getTime();
 		   if (config instanceof ES60CON) {
 			   int channels = ((ES60CON)config).getChannels().length;
-			   indices_ = new Vector[channels + 1];
+			   if (loadIndex(channels + 1))
+				   return;
+			   indices_ = new ES60OffsetIndex[channels + 1];
 			   for (int i = 0; i <= channels; i++)
-				   indices_[i] = new Vector<Long>();
+				   indices_[i] = new ES60OffsetIndex();
 		   } else 
 			   throw new IOException("CON0 record not at start of file, cannot create index");
 	   }
@@ -245,12 +329,200 @@ public void open(boolean index)
 		   stream_.close();
 		   stream_ = null;
 	   }
+	   if (in_ instanceof ES60Input)
+		   ((ES60Input)in_).close();
 	   if  (raFile_ != null) {
 		   raFile_.close();
 		   raFile_ = null;
 	   }
    }
 
+   /**
+    *  Is there another complete datagram to read?
+    *
+    *  Returns false at the end of the file, without throwing an EOFException.
+    *  If the file ends part way through a datagram this also returns false
+    *  and isTruncated() will return true.
+    *  When reading from a stream only the length of the next datagram can be 
+    *  checked, so read() may still throw an EOFException for a datagram
+    *  which is cut short.
+    *
+    *  Will attempt to open the file if it is not already open.
+    *
+    *  @return true if read() will return another datagram.
+    *  @throws IOException if something goes wrong.
+    **/
+   public boolean hasNext() 
+   throws IOException {
+	   if (in_ == null)
+		   open();
+
+	   if (stream_ != null) {
+		   stream_.mark(4);
+		   int got = 0;
+		   while (got < 4 && stream_.read() >= 0)
+			   got++;
+		   stream_.reset();
+		   if (got == 0)
+			   return false;
+		   if (got < 4) {
+			   truncated_ = 0;
+			   return false;
+		   }
+		   return true;
+	   }
+
+	   long pos = getFilePointer();
+	   long remaining = (in_ instanceof ES60Input ? ((ES60Input)in_).length() : raFile_.length()) - pos;
+	   if (remaining <= 0)
+		   return false;
+	   if (remaining >= 4) {
+		   int len = in_.readInt();
+		   seek(pos);
+		   if (swap_)
+			   len = ES60Record.swap(len);
+		   if (len >= ES60Record.HEADER_LENGTH && remaining >= len + 8L)
+			   return true;
+	   }
+	   truncated_ = pos;
+	   return false;
+   }
+
+   /**
+    *  Did the file end with an incomplete datagram?
+    *  This is only known once hasNext() has returned false.
+    *  @return true if the last datagram in the file is incomplete.
+    **/
+   public boolean isTruncated() {
+	   return truncated_ >= 0;
+   }
+
+   /**
+    *  Returns the file pointer of the incomplete datagram at the end of the file.
+    *  @return File pointer of the incomplete datagram, or -1 if there isn't one.
+    *  @see #isTruncated()
+    **/
+   public long getTruncated() {
+	   return truncated_;
+   }
+
+   /**
+    *  Returns an Iterator over the remaining records in the file.
+    *  Any IOException while reading is thrown as an UncheckedIOException.
+    *  When the iterator reaches the end of the file any index being created is closed.
+    *  @return Iterator of records.
+    **/
+   public Iterator<ES60Record> iterator() {
+	   return iterator(false);
+   }
+
+   /**
+    *  Returns an Iterator over the remaining records in the file.
+    *  @param nmeaOnly I'm only interested in NMEA datagrams.
+    *  @return Iterator of records.
+    *  @see #read(boolean)
+    **/
+   public Iterator<ES60Record> iterator(boolean nmeaOnly) {
+	   return new RecordIterator(nmeaOnly);
+   }
+
+   /**
+    *  Scan the file for the offset of every complete datagram.
+    *  Only the length at the start of each datagram is read, 
+    *  the contents are skipped. The position of the file is not changed.
+    *
+    *  Will attempt to open the file if it is not already open.
+    *
+    *  @return File offsets of the datagrams, in file order.
+    *  @throws IOException if the file is a stream or cannot be read.
+    **/
+   public long[] scanOffsets()
+   throws IOException {
+	   if (in_ == null)
+		   open();
+	   if (raFile_ == null)
+		   throw new IOException("Cannot scan datagram offsets of a stream");
+
+	   ES60BufferedInput in = new ES60BufferedInput(raFile_.getChannel(), 
+			   ES60BufferedInput.BUFFER_SIZE, ES60BufferedInput.BUFFER_SIZE);
+	   long length = in.length();
+	   long[] offsets = new long[1024];
+	   int n = 0;
+	   long pos = 0;
+	   while (pos + 4 <= length) {
+		   in.seek(pos);
+		   int len = in.readInt();
+		   if (swap_)
+			   len = ES60Record.swap(len);
+		   if (len < ES60Record.HEADER_LENGTH || pos + len + 8 > length)
+			   break; // incomplete datagram
+		   if (n == offsets.length)
+			   offsets = Arrays.copyOf(offsets, n * 2);
+		   offsets[n++] = pos;
+		   pos += len + 8;
+	   }
+	   return Arrays.copyOf(offsets, n);
+   }
+
+   /**
+    *  Returns a Spliterator over every datagram in the file,
+    *  which can be split to process the file in parallel.
+    *
+    *  Will attempt to open the file if it is not already open.
+    *
+    *  @param ordered Should the records be kept in file order?
+    *  @return Spliterator over all datagrams.
+    *  @throws IOException if the file is a stream or cannot be read.
+    *  @see #scanOffsets()
+    **/
+   public ES60Spliterator spliterator(boolean ordered)
+   throws IOException {
+	   long[] offsets = scanOffsets();
+	   return new ES60Spliterator(this, raFile_.getChannel(), offsets, ordered);
+   }
+
+   /**
+    *  Returns a Spliterator over the indexed datagrams for a channel,
+    *  which can be split to process the file in parallel.
+    *  The file must have been indexed, see open(boolean).
+    *
+    *  @param channel Channel number, or 0 for NMEA datagrams with a position.
+    *  @param ordered Should the records be kept in file order?
+    *  @return Spliterator over the datagrams for the channel.
+    *  @throws IOException if the file has not been indexed.
+    *  @see #getIndex(int)
+    **/
+   public ES60Spliterator spliterator(int channel, boolean ordered)
+   throws IOException {
+	   long[] offsets = raFile_ == null ? null : getIndex(channel);
+	   if (offsets == null)
+		   throw new IOException(this + " has not been indexed");
+	   return new ES60Spliterator(this, raFile_.getChannel(), offsets, ordered);
+   }
+
+   /**
+    *  Returns an ordered Stream of every datagram in the file.
+    *  @param parallel Return a parallel stream?
+    *  @return Stream of all datagrams.
+    *  @throws IOException if the file is a stream or cannot be read.
+    **/
+   public Stream<ES60Record> stream(boolean parallel)
+   throws IOException {
+	   return StreamSupport.stream(spliterator(true), parallel);
+   }
+
+   /**
+    *  Returns an ordered Stream of the indexed datagrams for a channel.
+    *  @param channel Channel number, or 0 for NMEA datagrams with a position.
+    *  @param parallel Return a parallel stream?
+    *  @return Stream of the datagrams for the channel.
+    *  @throws IOException if the file has not been indexed.
+    **/
+   public Stream<ES60Record> stream(int channel, boolean parallel)
+   throws IOException {
+	   return StreamSupport.stream(spliterator(channel, true), parallel);
+   }
+
    /**
     *  Read a record from the file.
     *
@@ -281,33 +553,126 @@ public void open(boolean index)
 	   if (in_ == null)
 		   open();
 	   ES60Record retval = ES60Record.read(in_, this, nmeaOnly);
+	   loaded(retval, nmeaOnly);
 	   if (retval instanceof ES60CON)
 		   config_ = (ES60CON)retval;
 	   if (indices_ != null) {
 		   if (retval instanceof ES60RAW) {
 			   int channel = ((ES60RAW)retval).getChannel();
 			   if (channel > 0 && channel < indices_.length) // Encountered ER60 data with one channel in config and every second ping on channel 2
-				   indices_[channel].add(new Long(retval.getFilePointer()));
+				   indices_[channel].add(retval.getFilePointer());
 			   /* Ignore unknown channels.
 			   else {
 				   if (channel < indices_.length * 4) { // handle a reasonable number of additional channels
-					   Vector<Long>[] indices = new Vector[channel + 1];
+					   ES60OffsetIndex[] indices = new ES60OffsetIndex[channel + 1];
 					   System.arraycopy(indices_, 0, indices, 0, indices_.length);
 					   for (int i = indices_.length; i < indices.length; i++)
-						   indices[i] = new Vector<Long>();
+						   indices[i] = new ES60OffsetIndex();
 					   indices_ = indices;
-					   indices_[channel].add(new Long(retval.getFilePointer()));
+					   indices_[channel].add(retval.getFilePointer());
 				   } else
 				   System.err.println("Unexpected channel: " + channel);				   
 			   }
 			   */
 		   }
 		   if (retval instanceof ES60NMEA && ((ES60NMEA)retval).hasPos())
-			   indices_[0].add(new Long(retval.getFilePointer()));
+			   indices_[0].add(retval.getFilePointer());
 	   }
 	   return retval;
    }
 
+   /**
+    *  Read the next datagram from the file into a buffer shared by
+    *  all datagrams and return a view of it.
+    *
+    *  Unlike read(), this does not allocate objects for each datagram.
+    *  The returned view, and the buffer it refers to, are reused by the next
+    *  call to readView(), so the view is only valid until then.
+    *  The view will be an ES60View.RAW, ES60View.NMEA or ES60View.CON
+    *  if the datagram is of that type, otherwise a plain ES60View.
+    *  Use ES60View.toRecord() to keep a copy of a datagram.
+    *
+    *  Will attempt to open the file if it is not already open.
+    *
+    *  @return View of the next datagram read from the file.
+    *  @throws IOException if something goes wrong.
+    *  @throws EOFException at end of file.
+    **/
+   public ES60View readView() 
+   throws IOException {
+	   if (in_ == null)
+		   open();
+	   long filePointer = getFilePointer();
+
+	   int len = in_.readInt();
+	   if (swap_)
+		   len = ES60Record.swap(len);
+	   if (len < ES60Record.HEADER_LENGTH) 
+		   throw new IOException("Record length is too short:" + len);
+
+	   /* header, content and trailing length */
+	   if (viewBuffer_ == null || viewBuffer_.capacity() < len + 4)
+		   viewBuffer_ = ByteBuffer.allocate(Math.max(len + 4, ES60BufferedInput.READ_AHEAD));
+	   viewBuffer_.order(getByteOrder());
+	   in_.readFully(viewBuffer_.array(), 0, len + 4);
+	   int len2 = viewBuffer_.getInt(len);
+	   if (len != len2)
+		   throw new IOException("Length mismatch " + len + " != " + len2);
+
+	   if (view_ == null) {
+		   view_ = new ES60View();
+		   rawView_ = new ES60View.RAW();
+		   nmeaView_ = new ES60View.NMEA();
+		   conView_ = new ES60View.CON();
+	   }
+	   /* type is stored big endian regardless of platform, see ES60Header */
+	   int type = viewBuffer_.getInt(0);
+	   if (swap_)
+		   type = Integer.reverseBytes(type);
+	   ES60View view;
+	   switch (type) {
+	   case ES60Record.RAW0:
+		   view = rawView_;
+		   break;
+	   case ES60Record.NME0:
+		   view = nmeaView_;
+		   break;
+	   case ES60Record.CON0:
+		   view = conView_;
+		   break;
+	   default:
+		   view = view_;
+	   }
+	   view.wrap(viewBuffer_, 0, len, filePointer, this);
+
+	   /* keep the configuration and index as read() does */
+	   if (view == conView_)
+		   config_ = (ES60CON)view.toRecord();
+	   if (indices_ != null) {
+		   if (view == rawView_) {
+			   int channel = rawView_.getChannel();
+			   if (channel > 0 && channel < indices_.length)
+				   indices_[channel].add(filePointer);
+		   } else if (view == nmeaView_ && nmeaView_.hasPos())
+			   indices_[0].add(filePointer);
+	   }
+	   return view;
+   }
+
+   /**
+    *  Returns the file pointer of the next record to be read.
+    *  @return File pointer, or 0 if the file is being read from a stream.
+    *  @throws IOException if the file pointer cannot be determined.
+    **/
+   public long getFilePointer() 
+   throws IOException {
+	   if (in_ instanceof ES60Input)
+		   return ((ES60Input)in_).getFilePointer();
+	   if (in_ instanceof RandomAccessFile)
+		   return ((RandomAccessFile)in_).getFilePointer();
+	   return 0;
+   }
+
    /**
     *  Read a record from the file, starting at position pos.
     *
@@ -323,10 +688,183 @@ public void open(boolean index)
 		   open();
 	   if (raFile_ == null)
 		   return null;
-	   raFile_.seek(pos);
+	   seek(pos);
 	   return read(false);
    }
 
+   /**
+    *  Read the record at position pos without using or changing
+    *  the position of the file.
+    *
+    *  Unlike read(long) this may be called by any number of threads at once,
+    *  eg a display and a background analysis sharing one ES60File.
+    *  Each thread reads through its own ES60BufferedInput using positional 
+    *  reads on the channel of the file, so there is no locking and the
+    *  file is not opened again.
+    *  The configuration record and index of the file are not updated.
+    *
+    *  Will attempt to open the file if it is not already open.
+    *
+    *  @param pos File pointer to start of record in file.
+    *  @return Record containing the datagram at pos.
+    *  @throws IOException if the file is a stream or the record cannot be read.
+    **/
+   public ES60Record fetch(long pos)
+   throws IOException {
+	   RandomAccessFile raFile = raFile_;
+	   if (raFile == null) {
+		   synchronized (this) {
+			   if (in_ == null)
+				   open();
+		   }
+		   raFile = raFile_;
+		   if (raFile == null)
+			   throw new IOException("Cannot fetch records from a stream");
+	   }
+	   FileChannel channel = raFile.getChannel();
+	   ES60BufferedInput in = fetchInput_.get();
+	   if (in == null || in.channel_ != channel) {
+		   in = new ES60BufferedInput(channel, bufferSize_, readAhead_);
+		   fetchInput_.set(in);
+	   }
+	   in.seek(pos);
+	   ES60Record retval = ES60Record.read(in, this, false);
+	   loaded(retval, false);
+	   return retval;
+   }
+
+   /**
+    *  Position the file at the first indexed record with a time at or
+    *  after the given time, so that the next read() returns that record.
+    *
+    *  The index of each channel is searched by reading only the header
+    *  of records at the offsets tried, so only a few reads are needed 
+    *  however long the file is.
+    *  Records which are not in the index (eg NMEA without a position) 
+    *  between the previous indexed record and the one found are skipped.
+    *  The file must have been indexed, see open(boolean).
+    *
+    *  @param time Time to seek to.
+    *  @return true if a record was found, false if there are no indexed records
+    *          at or after time, in which case the file is positioned at the end.
+    *  @throws IOException if the file has not been indexed or cannot be read.
+    **/
+   public boolean seek(Date time)
+   throws IOException {
+	   if (index_ == null)
+		   throw new IOException(this + " has not been indexed");
+	   long t = time.getTime();
+	   long pos = -1;
+	   for (int i = 0; i < index_.length; i++) {
+		   ES60OffsetIndex index = index_[i];
+		   int found = search(index, t);
+		   if (found < index.size()) {
+			   long offset = index.get(found);
+			   if (pos < 0 || offset < pos)
+				   pos = offset;
+		   }
+	   }
+	   if (pos < 0) {
+		   seek(((ES60Input)in_).length());
+		   return false;
+	   }
+	   seek(pos);
+	   return true;
+   }
+
+   /**
+    *  Read the first record for a channel with a time at or after the given time.
+    *  The file is left positioned after the record, so read() continues
+    *  from there.
+    *  The file must have been indexed, see open(boolean).
+    *
+    *  @param time Time of the record wanted.
+    *  @param channel Channel number, or 0 for NMEA records with a position.
+    *  @return The record, or null if there is no record for the channel at or after time.
+    *  @throws IOException if the file has not been indexed or cannot be read.
+    *  @see #seek(Date)
+    **/
+   public ES60Record readAt(Date time, int channel)
+   throws IOException {
+	   if (index_ == null)
+		   throw new IOException(this + " has not been indexed");
+	   ES60OffsetIndex index = index_[channel];
+	   int found = search(index, time.getTime());
+	   if (found >= index.size())
+		   return null;
+	   return read(index.get(found));
+   }
+
+   /**
+    *  Binary search an index for the first record at or after a time,
+    *  reading only the record headers.
+    *
+    *  @param index Index to search, in time order.
+    *  @param time Time in milliseconds since 1970.
+    *  @return Position in index of the first record at or after time, 
+    *          or index.size() if there is none.
+    *  @throws IOException if a record header cannot be read.
+    **/
+   protected int search(ES60OffsetIndex index, long time)
+   throws IOException {
+	   int low = 0;
+	   int high = index.size();
+	   while (low < high) {
+		   int mid = (low + high) >>> 1;
+		   if (readTime(index.get(mid)) < time)
+			   low = mid + 1;
+		   else
+			   high = mid;
+	   }
+	   return low;
+   }
+
+   /**
+    *  Called with every record read from the file by read(), fetch() 
+    *  and the Spliterators of the file, before it is returned.
+    *  This does nothing, subclasses may override it to change the records read.
+    *  It may be called by several threads at once.
+    *
+    *  @param record Record read from the file.
+    *  @param nmeaOnly Was only the header of the record read if it is not NMEA?
+    *  @throws IOException if the record cannot be processed.
+    *  @see au.csiro.marine.echo.ES60AdjustedFile
+    **/
+   protected void loaded(ES60Record record, boolean nmeaOnly)
+   throws IOException {
+   }
+
+   /**
+    *  Read the time from the header of the record at pos.
+    *
+    *  @param pos File pointer to start of a record in the file.
+    *  @return Time of the record in milliseconds since 1970.
+    *  @throws IOException if the header cannot be read.
+    **/
+   protected long readTime(long pos)
+   throws IOException {
+	   seek(pos + 4);
+	   return ES60Header.read(in_, swap_).getTime().getTime();
+   }
+
+   /**
+    *  Set the file pointer of the open file.
+    *  The next record read will start at pos.
+    *  Records should not be read out of order while the file is being indexed.
+    *
+    *  @param pos File pointer to start of a record in the file.
+    *  @throws IOException if the file is not open for random access.
+    **/
+   public void seek(long pos)
+   throws IOException {
+	   if (in_ instanceof ES60Input)
+		   ((ES60Input)in_).seek(pos);
+	   else if (raFile_ != null)
+		   raFile_.seek(pos);
+	   else
+		   throw new IOException("Cannot seek in a stream");
+   }
+
     /**
     *  Returns a linked list of ES60NMEA records for the same point.
     *  Returns null at end of file.
@@ -340,7 +878,7 @@ public void open(boolean index)
    public ES60NMEA readPoint(long sentences) {
 	   ES60NMEA head = lastNMEA_;
 	   try {
-		   while (true) { // till end of file or return when point complete
+		   while (hasNext()) { // till end of file or return when point complete
 			   ES60Record dr = read(true);
 			   if (dr instanceof ES60NMEA) {
 				   ES60NMEA nmea = (ES60NMEA)dr;
@@ -368,19 +906,90 @@ public void open(boolean index)
 			   }
 		   }      
 	   } catch (EOFException eof) {
-		   if (lastNMEA_ != null) {
-			   end_ = lastNMEA_.getTime();
-		   }
-		   if (indices_ != null) {
-			   getIndex(0); // close the index
-		   }
+		   // datagram cut short at end of a stream
 	   } catch (IOException ioe) {
 		   ioe.printStackTrace();
+		   lastNMEA_ = null;
+		   return head;
+	   }
+
+	   /* end of file */
+	   if (lastNMEA_ != null) {
+		   end_ = lastNMEA_.getTime();
+	   }
+	   if (indices_ != null) {
+		   getIndex(0); // close the index
 	   }
 	   lastNMEA_ = null;
 	   return head;
    }
 
+   /**
+    *  Set whether the file should be read through a memory mapping.
+    *  Memory mapping avoids a system call for each small read
+    *  which can make reading large files much faster.
+    *  This must be set before the file is opened and
+    *  has no effect when reading from standard input.
+    *
+    *  @param mapped Read the file through a memory mapping?
+    **/
+   public void setMapped(boolean mapped) {
+	   mapped_ = mapped;
+   }
+
+   /**
+    *  Is the file read through a memory mapping?
+    *  @return true if the file is, or will be, memory mapped.
+    **/
+   public boolean isMapped() {
+	   return mapped_;
+   }
+
+   /**
+    *  Set whether the index of the file is saved to, and loaded from,
+    *  an ES60IndexFile next to the file.
+    *  With a saved index, open(true) loads the index instead of
+    *  building it while the file is read.
+    *  The default is false, no file is written next to the .raw file.
+    *
+    *  @param sidecar Use an index file?
+    **/
+   public void setSidecar(boolean sidecar) {
+	   sidecar_ = sidecar;
+   }
+
+   /**
+    *  Is the index of the file saved to an ES60IndexFile?
+    *  @return true if an index file is used.
+    **/
+   public boolean isSidecar() {
+	   return sidecar_;
+   }
+
+   /**
+    *  Set the size of the buffer used to read the file and the number
+    *  of bytes read after seeking to a new position in the file.
+    *  Larger buffers suit sequential reading, a smaller read-ahead suits
+    *  reading individual records by position.
+    *  When reading a stream only the buffer size is used.
+    *  This must be set before the file is opened.
+    *
+    *  @param bufferSize Size of the buffer in bytes.
+    *  @param readAhead Number of bytes to read after a seek.
+    **/
+   public void setBufferSize(int bufferSize, int readAhead) {
+	   bufferSize_ = bufferSize;
+	   readAhead_ = readAhead;
+   }
+
+   /**
+    *  Returns the size of the buffer used to read the file.
+    *  @return buffer size in bytes.
+    **/
+   public int getBufferSize() {
+	   return bufferSize_;
+   }
+
    /**
     *  Is byte swapping required for this file?
     *
@@ -391,6 +1000,17 @@ public void open(boolean index)
       return swap_;
    }
 
+   /**
+    *  Byte order of the file.
+    *
+    *  The value of the result is undefined until the file has been open()ed.
+    *
+    *  @return ByteOrder.LITTLE_ENDIAN if byte swapping is required, else ByteOrder.BIG_ENDIAN.
+    **/
+   public ByteOrder getByteOrder() {
+	   return swap_ ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+   }
+
    /** 
     *  Return the survey name for this file.
     *  @return the survey name.
@@ -483,6 +1103,8 @@ public void open(boolean index)
     *  of the RAW records for that channel number.
     *  This method will close the index, so should only be called after the entire
     *  file has been read and indexed.
+    *  When the index is closed at the end of the file it is saved in an
+    *  ES60IndexFile, if setSidecar(true) has been called.
     *  For this method to successfully return an index the file must have been opened
     *  in indexing mode and read sequentially right through.
     *  @param channel 
@@ -491,22 +1113,87 @@ public void open(boolean index)
    public long[] getIndex(int channel) {
 	   // Close the index
 	   if (indices_ != null) {
-		   index_ = new long[indices_.length][];
-		   for (int i = 0; i < indices_.length; i++) {
-			   int l = indices_[i].size();
-			   index_[i] = new long[l];
-			   for (int j = 0; j < l; j++)
-				   index_[i][j] = ((Long)indices_[i].get(j)).longValue();
-		   }
+		   for (int i = 0; i < indices_.length; i++)
+			   indices_[i].close();
+		   index_ = indices_;
 		   indices_ = null;
+		   saveIndex();
 	   }
 	   
 	   if (index_ == null)
 		   return null;
 	   
-	   return index_[channel];
+	   return index_[channel].toArray();
+   }
+
+   /**
+    *  Get the offset index for a particular data channel.
+    *  Unlike getIndex() this does not close the index, and the returned
+    *  ES60OffsetIndex may be queried from another thread while the file 
+    *  is still being read and indexed.
+    *  @param channel Channel number, or 0 for NMEA records.
+    *  @return The index being built or loaded, or null if the file is not indexed.
+    */
+   public ES60OffsetIndex getOffsetIndex(int channel) {
+	   ES60OffsetIndex[] index = indices_ != null ? indices_ : index_;
+	   if (index == null)
+		   return null;
+	   return index[channel];
    }		   
 
+   /**
+    *  Load the index from the ES60IndexFile for this file if there is one
+    *  and it is up to date.
+    *
+    *  @param channels Number of channels expected in the index, including channel 0.
+    *  @return true if the index was loaded.
+    **/
+   protected boolean loadIndex(int channels) {
+	   if (!sidecar_ || file_ == null)
+		   return false;
+	   ES60IndexFile indexFile = new ES60IndexFile(file_);
+	   try {
+		   if (!indexFile.load() || indexFile.getIndex().length != channels)
+			   return false;
+	   } catch (IOException ioe) {
+		   Logger.getLogger(ES60File.class.getName()).warning("Ignoring index " + indexFile.getFile() + ": " + ioe.getMessage());
+		   return false;
+	   }
+	   long[][] offsets = indexFile.getIndex();
+	   index_ = new ES60OffsetIndex[offsets.length];
+	   for (int i = 0; i < offsets.length; i++)
+		   index_[i] = new ES60OffsetIndex(offsets[i]);
+	   if (indexFile.getStart() != null)
+		   start_ = indexFile.getStart();
+	   if (indexFile.getEnd() != null)
+		   end_ = indexFile.getEnd();
+	   return true;
+   }
+
+   /**
+    *  Save the index to the ES60IndexFile for this file.
+    *  The index is only saved if the whole file has been read,
+    *  failure to save the index is logged.
+    **/
+   protected void saveIndex() {
+	   if (!sidecar_ || raFile_ == null || index_ == null)
+		   return;
+	   ES60IndexFile indexFile = new ES60IndexFile(file_);
+	   try {
+		   long pos = getFilePointer();
+		   if (pos < ((ES60Input)in_).length() && pos != truncated_)
+			   return; // not at end of file
+		   getEnd();
+		   seek(pos);
+		   long[][] offsets = new long[index_.length][];
+		   for (int i = 0; i < index_.length; i++)
+			   offsets[i] = index_[i].toArray();
+		   indexFile.save(offsets, start_, end_);
+	   } catch (IOException ioe) {
+		   Logger.getLogger(ES60File.class.getName()).warning("Unable to save index " + indexFile.getFile() + ": " + ioe.getMessage());
+	   }
+   }
+
    public Date getStart() {
 	   if (start_ == null) {
 		   try {
@@ -586,24 +1273,21 @@ public void open(boolean index)
 	   lformat.setMaximumFractionDigits(6);
 	   lformat.setGroupingUsed(false);
 	   
-	   try {
-		   out.println("longitude,latitude,time,channel,depth,power,Sv");
-		   while (true) {
-			   ES60Record dr = read();
-			   
-			   if (dr instanceof ES60RAW) {
-				   pending.add((ES60RAW) dr);
-			   }
-			   
-			   if (dr instanceof ES60NMEA && dr.hasPos()) {
-				   prev = next;
-				   next = (ES60NMEA) dr;
-				   dumpPings(out, prev, next, pending, lformat, format);
-			   }
+	   out.println("longitude,latitude,time,channel,depth,power,Sv");
+	   while (hasNext()) {
+		   ES60Record dr = read();
+
+		   if (dr instanceof ES60RAW) {
+			   pending.add((ES60RAW) dr);
+		   }
+
+		   if (dr instanceof ES60NMEA && dr.hasPos()) {
+			   prev = next;
+			   next = (ES60NMEA) dr;
+			   dumpPings(out, prev, next, pending, lformat, format);
 		   }
-	   } catch (EOFException e) {
-		   dumpPings(out, prev, next, pending, lformat, format);
 	   }
+	   dumpPings(out, prev, next, pending, lformat, format);
 	   
    }
    
@@ -636,6 +1320,65 @@ public void open(boolean index)
    }
 
   
+   /* ---------- Inner Classes ---------- */
+
+   /* ----- Class RecordIterator ----- */
+
+   /**
+    *  RecordIterator iterates over the records in the ES60File
+    *  using hasNext() to detect the end of the file.
+    **/
+   protected class RecordIterator implements Iterator<ES60Record> {
+
+	   /**
+	    *  Passed to read(boolean).
+	    **/
+	   boolean nmeaOnly_;
+
+	   /**
+	    *  Have we reached the end of the file?
+	    **/
+	   boolean done_;
+
+	   RecordIterator(boolean nmeaOnly) {
+		   nmeaOnly_ = nmeaOnly;
+	   }
+
+	   public boolean hasNext() {
+		   if (done_)
+			   return false;
+		   try {
+			   if (ES60File.this.hasNext())
+				   return true;
+		   } catch (IOException ioe) {
+			   throw new UncheckedIOException(ioe);
+		   }
+		   done_ = true;
+		   if (indices_ != null)
+			   getIndex(0); // close the index
+		   return false;
+	   }
+
+	   public ES60Record next() {
+		   if (!hasNext())
+			   throw new NoSuchElementException();
+		   try {
+			   return read(nmeaOnly_);
+		   } catch (EOFException eof) {
+			   /* datagram cut short in a stream */
+			   done_ = true;
+			   truncated_ = 0;
+			   throw new NoSuchElementException("Incomplete datagram at end of " + ES60File.this);
+		   } catch (IOException ioe) {
+			   throw new UncheckedIOException(ioe);
+		   }
+	   }
+
+	   public void remove() {
+		   throw new UnsupportedOperationException();
+	   }
+   }
+
     /* ---------- Static Methods ---------- */
     
 	/**
@@ -737,15 +1480,12 @@ public void open(boolean index)
 					   }
 					   
 				   } else {
-					   try {
-						   while (true) {
-							   ES60Record dr = es60.read();
-							   out.println(dr.header_.toString() + "," + dr);
-						   }
-					   } catch (EOFException e) {
-					   }
+					   for (ES60Record dr : es60)
+						   out.println(dr.header_.toString() + "," + dr);
 				   }
 				   
+				   if (es60.isTruncated())
+					   System.err.println(arg + ": incomplete datagram at end of file ignored");
 				   es60.close();
 			   } catch (Exception e) {
 				   e.printStackTrace();
@@ -32,6 +32,7 @@
 package au.csiro.marine.echo.data.es60;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.text.SimpleDateFormat;
 
@@ -283,6 +284,29 @@ public class ES60Header {
       out.writeInt(timeh);
    }
 
+   /**
+    *  Write this header into a ByteBuffer at its current position.
+    *  The buffer must be in big endian order, as for write(DataOutput).
+    *
+    *  @param buffer Where to write the record.
+    *  @param swap Swap bytes when writing (write in little endian)?
+    **/
+   public void write(ByteBuffer buffer, boolean swap) {
+      long time = timestamp_.getTime();
+      time -= DATE_ORIGIN;
+      time *= 10000;
+      time += nanos_;
+      int timel = (int)(time & 0xffffffffL);
+      int timeh = (int)(time >> 32 & 0xffffffffL);
+      if (swap) {
+	 timel = ES60Record.swap(timel);
+	 timeh = ES60Record.swap(timeh);
+      }
+      buffer.putInt(typei_);
+      buffer.putInt(timel);
+      buffer.putInt(timeh);
+   }
+
 }
 
 /*
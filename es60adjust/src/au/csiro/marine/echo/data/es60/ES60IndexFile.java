@@ -0,0 +1,265 @@
+/*
+    ES60IndexFile.java  au.csiro.marine.echo.data.es60.ES60IndexFile
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+    ES60IndexFile is a binary sidecar file holding the index of an ES60File.
+
+    Indexing an ES60File requires reading the whole file. The index is saved
+    next to the .raw file (with SUFFIX appended to the name) so the file 
+    can be reopened without reading it again.
+    The sidecar records the length and modification time of the .raw file
+    and is ignored if either has changed.
+
+    The sidecar is written in big endian order as:
+<pre>
+    int      MAGIC
+    int      VERSION
+    long     length of the .raw file
+    long     modification time of the .raw file
+    long     start time (ms since 1970) or -1 if unknown
+    long     end time (ms since 1970) or -1 if unknown
+    int      number of channels n (including channel 0 for NMEA)
+    int[n]   number of offsets (pings) for each channel
+    long[]   offsets for channel 0, then channel 1, ...
+</pre>
+    and is read back through a memory mapping.
+
+    @version $Id$
+**/
+public class ES60IndexFile {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Identifies an index file, "ES6I".
+	 **/
+	public static final int MAGIC = 0x45533649;
+
+	/**
+	 *  Version of the index file format.
+	 **/
+	public static final int VERSION = 1;
+
+	/**
+	 *  Appended to the name of the .raw file to give the name of the index file.
+	 **/
+	public static final String SUFFIX = ".idx";
+
+	/**
+	 *  Length of the fixed part of the file, before the counts.
+	 **/
+	protected static final int HEADER = 4 + 4 + 8 + 8 + 8 + 8 + 4;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The .raw file that is indexed.
+	 **/
+	protected File rawFile_;
+
+	/**
+	 *  The index file.
+	 **/
+	protected File file_;
+
+	/**
+	 *  File offsets of the records for each channel.
+	 **/
+	protected long[][] index_;
+
+	/**
+	 *  Start time, or null if unknown.
+	 **/
+	protected Date start_;
+
+	/**
+	 *  End time, or null if unknown.
+	 **/
+	protected Date end_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60IndexFile for the given .raw file.
+	 *  @param rawFile The file that is indexed.
+	 **/
+	public ES60IndexFile(File rawFile) {
+		rawFile_ = rawFile;
+		file_ = new File(rawFile.getPath() + SUFFIX);
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Read the index file, if it exists and is up to date.
+	 *
+	 *  @return true if the index was read,
+	 *          false if there is no index file or it is out of date.
+	 *  @throws IOException if the index file cannot be read or is corrupt.
+	 **/
+	public boolean load()
+	throws IOException {
+		if (!file_.isFile() || !rawFile_.isFile())
+			return false;
+
+		RandomAccessFile raf = new RandomAccessFile(file_, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER)
+				throw new IOException(file_ + " is too short");
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if (map.getInt() != MAGIC)
+				throw new IOException(file_ + " is not an ES60 index file");
+			if (map.getInt() != VERSION)
+				return false;
+			if (map.getLong() != rawFile_.length() ||
+					map.getLong() != rawFile_.lastModified())
+				return false;
+
+			long start = map.getLong();
+			long end = map.getLong();
+			int channels = map.getInt();
+			if (channels < 0 || HEADER + 4L * channels > size)
+				throw new IOException(file_ + " is corrupt");
+
+			int[] counts = new int[channels];
+			long total = 0;
+			for (int i = 0; i < channels; i++) {
+				counts[i] = map.getInt();
+				if (counts[i] < 0)
+					throw new IOException(file_ + " is corrupt");
+				total += counts[i];
+			}
+			if (HEADER + 4L * channels + 8L * total != size)
+				throw new IOException(file_ + " is corrupt");
+
+			LongBuffer offsets = map.asLongBuffer();
+			long[][] index = new long[channels][];
+			for (int i = 0; i < channels; i++) {
+				index[i] = new long[counts[i]];
+				offsets.get(index[i]);
+			}
+
+			index_ = index;
+			start_ = start < 0 ? null : new Date(start);
+			end_ = end < 0 ? null : new Date(end);
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *  Write the index file.
+	 *  The file is written under a temporary name then renamed,
+	 *  so readers never see a partly written index.
+	 *
+	 *  @param index File offsets of the records for each channel.
+	 *  @param start Start time of the .raw file, may be null.
+	 *  @param end End time of the .raw file, may be null.
+	 *  @throws IOException if the index file cannot be written.
+	 **/
+	public void save(long[][] index, Date start, Date end)
+	throws IOException {
+		long total = 0;
+		for (int i = 0; i < index.length; i++)
+			total += index[i].length;
+		long size = HEADER + 4L * index.length + 8L * total;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Index of " + rawFile_ + " is too large");
+
+		ByteBuffer buffer = ByteBuffer.allocate((int)size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(rawFile_.length());
+		buffer.putLong(rawFile_.lastModified());
+		buffer.putLong(start == null ? -1 : start.getTime());
+		buffer.putLong(end == null ? -1 : end.getTime());
+		buffer.putInt(index.length);
+		for (int i = 0; i < index.length; i++)
+			buffer.putInt(index[i].length);
+		LongBuffer offsets = buffer.asLongBuffer();
+		for (int i = 0; i < index.length; i++)
+			offsets.put(index[i]);
+		buffer.clear();
+
+		File tmp = new File(file_.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			raf.close();
+		}
+		file_.delete();
+		if (!tmp.renameTo(file_)) {
+			tmp.delete();
+			throw new IOException("Unable to rename " + tmp + " to " + file_);
+		}
+
+		index_ = index;
+		start_ = start;
+		end_ = end;
+	}
+
+	/**
+	 *  Returns the index file.
+	 *  @return The sidecar file.
+	 **/
+	public File getFile() {
+		return file_;
+	}
+
+	/**
+	 *  Returns the index read or written.
+	 *  @return File offsets of the records for each channel.
+	 **/
+	public long[][] getIndex() {
+		return index_;
+	}
+
+	/**
+	 *  Returns the start time read or written.
+	 *  @return Start time or null if unknown.
+	 **/
+	public Date getStart() {
+		return start_;
+	}
+
+	/**
+	 *  Returns the end time read or written.
+	 *  @return End time or null if unknown.
+	 **/
+	public Date getEnd() {
+		return end_;
+	}
+}
+
+/*
+    Remember the days of long ago;
+    think about the generations past.
+            Deuteronomy 32:7
+*/
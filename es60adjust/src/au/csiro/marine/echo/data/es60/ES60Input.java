@@ -0,0 +1,67 @@
+/*
+    ES60Input.java  au.csiro.marine.echo.data.es60.ES60Input
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+    ES60Input is a DataInput that knows where it is in the underlying file.
+
+    RandomAccessFile provides this via getFilePointer() and seek(),
+    but does not implement an interface for it, so readers that want
+    to replace RandomAccessFile (eg memory mapped readers) implement
+    this interface instead.
+    ES60Record uses getFilePointer() to record the position of each
+    datagram so that ES60File can build its index and support read(long).
+
+    @version $Id$
+**/
+public interface ES60Input extends DataInput {
+
+	/**
+	 *  Returns the current offset in the underlying file.
+	 *  @return offset from the start of the file, in bytes, at which the next read occurs.
+	 *  @throws IOException if the position cannot be determined.
+	 **/
+	public long getFilePointer()
+	throws IOException;
+
+	/**
+	 *  Sets the offset from the start of the file at which the next read occurs.
+	 *  @param pos Offset from the beginning of the file, in bytes.
+	 *  @throws IOException if pos is negative or an I/O error occurs.
+	 **/
+	public void seek(long pos)
+	throws IOException;
+
+	/**
+	 *  Returns the length of the underlying file.
+	 *  @return length of the file in bytes.
+	 *  @throws IOException if an I/O error occurs.
+	 **/
+	public long length()
+	throws IOException;
+
+	/**
+	 *  Release any resources held by this input.
+	 *  @throws IOException if an I/O error occurs.
+	 **/
+	public void close()
+	throws IOException;
+}
+
+/*
+    Your word is a lamp to guide me
+    and a light for my path.
+            Psalm 119:105
+*/
@@ -0,0 +1,296 @@
+/*
+    ES60MappedInput.java  au.csiro.marine.echo.data.es60.ES60MappedInput
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    ES60MappedInput reads an ES60 file through a memory mapping of the file.
+
+    Reading through a RandomAccessFile makes one system call for every
+    readInt() and readFully() which, for the many small reads needed to
+    decode datagrams, is much slower than the disk.
+    ES60MappedInput maps a window of the file into memory and decodes
+    lengths, headers and payloads directly from the mapped buffer.
+
+    A single mapping is limited to 2GB, so the file is mapped as a sliding
+    window of at most WINDOW bytes. When a read would run past the end of
+    the current window a new window is mapped starting at the current
+    position, so datagrams never straddle two mappings.
+
+    Values are read in big endian order as required by DataInput,
+    byte swapping is left to the caller as for RandomAccessFile.
+
+    @version $Id$
+**/
+public class ES60MappedInput implements ES60Input {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Maximum size of a mapped window of the file.
+	 **/
+	public static final int WINDOW = 1 << 28;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The file being read, closed by close() if it was opened here.
+	 **/
+	protected RandomAccessFile raFile_;
+
+	/**
+	 *  Channel used to map the file.
+	 **/
+	protected FileChannel channel_;
+
+	/**
+	 *  Length of the file.
+	 **/
+	protected long length_;
+
+	/**
+	 *  Current mapped window of the file.
+	 **/
+	protected MappedByteBuffer map_;
+
+	/**
+	 *  File offset of the start of map_.
+	 **/
+	protected long start_;
+
+	/**
+	 *  Current file offset.
+	 **/
+	protected long pos_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60MappedInput reading the channel of an open RandomAccessFile.
+	 *  The RandomAccessFile will be closed when this input is closed.
+	 *
+	 *  @param raFile File to map.
+	 *  @throws IOException if the length of the file cannot be determined.
+	 **/
+	public ES60MappedInput(RandomAccessFile raFile)
+	throws IOException {
+		this(raFile.getChannel());
+		raFile_ = raFile;
+	}
+
+	/**
+	 *  Create an ES60MappedInput reading a FileChannel.
+	 *  The channel is not closed by close().
+	 *
+	 *  @param channel Channel to map.
+	 *  @throws IOException if the size of the channel cannot be determined.
+	 **/
+	public ES60MappedInput(FileChannel channel)
+	throws IOException {
+		channel_ = channel;
+		length_ = channel.size();
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Ensure n bytes from the current position are available in map_
+	 *  and return the offset of the current position in map_.
+	 *
+	 *  @param n Number of bytes required, must not exceed WINDOW.
+	 *  @return Index in map_ of the current position.
+	 *  @throws EOFException if the file does not contain n more bytes.
+	 **/
+	protected int window(int n)
+	throws IOException {
+		if (pos_ + n > length_)
+			throw new EOFException();
+		if (map_ == null || pos_ < start_ || pos_ + n > start_ + map_.limit()) {
+			long size = Math.min(WINDOW, length_ - pos_);
+			map_ = channel_.map(FileChannel.MapMode.READ_ONLY, pos_, size);
+			start_ = pos_;
+		}
+		return (int)(pos_ - start_);
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/* ----- Interface ES60Input ----- */
+
+	public long getFilePointer() {
+		return pos_;
+	}
+
+	public void seek(long pos)
+	throws IOException {
+		if (pos < 0)
+			throw new IOException("Negative seek offset " + pos);
+		pos_ = pos;
+	}
+
+	public long length() {
+		return length_;
+	}
+
+	public void close()
+	throws IOException {
+		map_ = null;
+		if (raFile_ != null) {
+			raFile_.close();
+			raFile_ = null;
+		}
+	}
+
+	/* ----- Interface DataInput ----- */
+
+	public void readFully(byte[] b)
+	throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	public void readFully(byte[] b, int off, int len)
+	throws IOException {
+		if (pos_ + len > length_)
+			throw new EOFException();
+		while (len > 0) {
+			int n = Math.min(len, WINDOW);
+			int i = window(n);
+			map_.position(i);
+			map_.get(b, off, n);
+			pos_ += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	public int skipBytes(int n)
+	throws IOException {
+		if (n <= 0)
+			return 0;
+		long skip = Math.min(n, length_ - pos_);
+		pos_ += skip;
+		return (int)skip;
+	}
+
+	public boolean readBoolean()
+	throws IOException {
+		return readByte() != 0;
+	}
+
+	public byte readByte()
+	throws IOException {
+		int i = window(1);
+		byte b = map_.get(i);
+		pos_++;
+		return b;
+	}
+
+	public int readUnsignedByte()
+	throws IOException {
+		return readByte() & 0xff;
+	}
+
+	public short readShort()
+	throws IOException {
+		int i = window(2);
+		short s = map_.getShort(i);
+		pos_ += 2;
+		return s;
+	}
+
+	public int readUnsignedShort()
+	throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	public char readChar()
+	throws IOException {
+		int i = window(2);
+		char c = map_.getChar(i);
+		pos_ += 2;
+		return c;
+	}
+
+	public int readInt()
+	throws IOException {
+		int i = window(4);
+		int v = map_.getInt(i);
+		pos_ += 4;
+		return v;
+	}
+
+	public long readLong()
+	throws IOException {
+		int i = window(8);
+		long v = map_.getLong(i);
+		pos_ += 8;
+		return v;
+	}
+
+	public float readFloat()
+	throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	public double readDouble()
+	throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 *  Reads a line of text, as for RandomAccessFile.readLine().
+	 **/
+	public String readLine()
+	throws IOException {
+		if (pos_ >= length_)
+			return null;
+		StringBuffer line = new StringBuffer();
+		while (pos_ < length_) {
+			int c = readUnsignedByte();
+			if (c == '\n')
+				break;
+			if (c == '\r') {
+				if (pos_ < length_ && peek() == '\n')
+					pos_++;
+				break;
+			}
+			line.append((char)c);
+		}
+		return line.toString();
+	}
+
+	/**
+	 *  Returns the next byte without advancing the file pointer.
+	 **/
+	protected byte peek()
+	throws IOException {
+		int i = window(1);
+		return map_.get(i);
+	}
+
+	public String readUTF()
+	throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
+
+/*
+    Everything that happens in this world
+    happens at the time God chooses.
+            Ecclesiastes 3:1
+*/
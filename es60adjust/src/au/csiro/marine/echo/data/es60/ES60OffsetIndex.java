@@ -0,0 +1,161 @@
+/*
+    ES60OffsetIndex.java  au.csiro.marine.echo.data.es60.ES60OffsetIndex
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.util.Arrays;
+
+/**
+    ES60OffsetIndex is a growable list of file offsets held in a long[].
+
+    ES60File used a Vector&lt;Long&gt; for each channel of its index, 
+    which boxed every offset, synchronized every add() and had to be copied
+    into a long[] when the index was closed.
+    ES60OffsetIndex appends offsets to a long[] which grows by half when full.
+
+    There may be one thread adding offsets while other threads read them.
+    The writer stores an offset before publishing the new size, and a 
+    reader reads the size before the array, so a reader always sees at 
+    least size() valid offsets.
+    Closing the index only marks it as closed. toArray() returns the
+    array itself when it is full, otherwise the first call after closing 
+    trims it to size once.
+
+    Offsets are kept at full width (no delta or variable length encoding)
+    so get(i) and binary searches are constant time per lookup,
+    and the index can be saved as is in an ES60IndexFile.
+
+    @version $Id$
+**/
+public class ES60OffsetIndex {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Initial capacity of a new index.
+	 **/
+	public static final int INITIAL_CAPACITY = 1024;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  File offsets, only the first size_ are valid.
+	 **/
+	protected volatile long[] offsets_;
+
+	/**
+	 *  Number of offsets in the index.
+	 **/
+	protected volatile int size_;
+
+	/**
+	 *  Has the index been closed?
+	 **/
+	protected volatile boolean closed_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an empty index.
+	 **/
+	public ES60OffsetIndex() {
+		offsets_ = new long[INITIAL_CAPACITY];
+	}
+
+	/**
+	 *  Create a closed index containing the given offsets.
+	 *  The array is used as is, not copied.
+	 *  @param offsets File offsets in file order.
+	 **/
+	public ES60OffsetIndex(long[] offsets) {
+		offsets_ = offsets;
+		size_ = offsets.length;
+		closed_ = true;
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Add an offset to the end of the index.
+	 *  Only one thread may add offsets.
+	 *  @param offset File offset of a record.
+	 *  @throws IllegalStateException if the index has been closed.
+	 **/
+	public void add(long offset) {
+		if (closed_)
+			throw new IllegalStateException("Index is closed");
+		long[] offsets = offsets_;
+		int n = size_;
+		if (n == offsets.length) {
+			offsets = Arrays.copyOf(offsets, n + (n >> 1) + 1);
+			offsets_ = offsets;
+		}
+		offsets[n] = offset;
+		size_ = n + 1;
+	}
+
+	/**
+	 *  Returns the number of offsets in the index.
+	 *  @return number of offsets.
+	 **/
+	public int size() {
+		return size_;
+	}
+
+	/**
+	 *  Returns an offset from the index.
+	 *  @param i Position in the index.
+	 *  @return File offset of the i'th record.
+	 *  @throws IndexOutOfBoundsException if i is not less than size().
+	 **/
+	public long get(int i) {
+		int n = size_;
+		if (i < 0 || i >= n)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+		return offsets_[i];
+	}
+
+	/**
+	 *  Close the index, no more offsets may be added.
+	 **/
+	public void close() {
+		closed_ = true;
+	}
+
+	/**
+	 *  Has the index been closed?
+	 *  @return true if no more offsets may be added.
+	 **/
+	public boolean isClosed() {
+		return closed_;
+	}
+
+	/**
+	 *  Returns the offsets in the index as an array of length size().
+	 *  The array must not be modified.
+	 *  @return File offsets.
+	 **/
+	public long[] toArray() {
+		int n = size_;
+		long[] offsets = offsets_;
+		if (offsets.length == n)
+			return offsets;
+		offsets = Arrays.copyOf(offsets, n);
+		if (closed_)
+			offsets_ = offsets;
+		return offsets;
+	}
+}
+
+/*
+    Let all things be done decently and in order.
+            1 Corinthians 14:40
+*/
@@ -41,6 +41,8 @@ package au.csiro.marine.echo.data.es60;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.*;
 import java.util.*;
 
@@ -165,6 +167,8 @@ public class ES60Record {
 		   try {
 			   filePointer = ((RandomAccessFile)in).getFilePointer();
 		   } catch (IOException ioe) {}
+	   else if (in instanceof ES60Input)
+		   filePointer = ((ES60Input)in).getFilePointer();
 		   
 	   int len = in.readInt();
 	   
@@ -315,6 +319,22 @@ protected boolean swap_;
    public long getFilePointer() {
 	   return filePointer_;
    }
+
+   /**
+    *  Return the length of this record as written, header plus content.
+    *  @return datagram length
+    */
+   public int getLength() {
+	   return HEADER_LENGTH + data_.length;
+   }
+   
+   /**
+    *  Return the byte order of the data in this record.
+    *  @return ByteOrder.LITTLE_ENDIAN if byte swapping is required, else ByteOrder.BIG_ENDIAN.
+    */
+   public ByteOrder getByteOrder() {
+	   return swap_ ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+   }
    
    /**
     *  Return the parsed contents of the record in a formatted way.
@@ -389,12 +409,25 @@ protected boolean swap_;
 	 len = swap(len);
       out.writeInt(len);
       header_.write(out, swap);
-      out.write(data_);
+      out.write(content());
       out.writeInt(len);
    }
 
    /* ----- Methods to be overwritten in some subclasses ----- */
 
+   /**
+    *  Returns the content of the datagram, following the header, to be written.
+    *  Subclasses which defer changes to the content apply them first.
+    *
+    *  Note that this method is overwritten in ES60RAW.
+    *
+    *  @return data_, not a copy.
+    *  @see ES60RAW#adjust(int)
+    **/
+   protected byte[] content() {
+      return data_;
+   }
+
    /**
     *  Add this record to the linked list of ES60Records
     *  headed by head, if it belongs to the same set.
@@ -516,6 +549,15 @@ protected boolean swap_;
    /* ---------- Inner Classes ---------- */
 
    /**
+ *  Returns a ByteBuffer wrapping data_ in the byte order of this record.
+ *  Values can be decoded from the buffer in bulk 
+ *  without testing swap_ for each value.
+ **/
+protected ByteBuffer buffer() {
+	return ByteBuffer.wrap(data_).order(getByteOrder());
+}
+
+/**
  *  Decode a 2 byte int (referred to as a short in the simrad manuals)
  *  from data_ starting at byte i
  **/
@@ -0,0 +1,270 @@
+/*
+    ES60Scanner.java  au.csiro.marine.echo.data.es60.ES60Scanner
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    ES60Scanner steps through the datagrams of a file reading only their
+    lengths and headers.
+
+    The file is memory mapped in windows of ES60MappedInput.WINDOW bytes,
+    remapped so that the current datagram always lies within one window.
+    After next() the length, type and (for RAW0 datagrams) channel of 
+    the datagram are available, and getBuffer() and getContentIndex() give
+    direct access to its contents, eg to patch power samples in place 
+    when the file is mapped for writing.
+    Nothing else in the datagram is read, so scanning a file only touches
+    the pages holding datagram headers.
+
+    @version $Id$
+**/
+public class ES60Scanner {
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  Channel of the file being scanned.
+	 **/
+	protected FileChannel channel_;
+
+	/**
+	 *  READ_ONLY or READ_WRITE.
+	 **/
+	protected FileChannel.MapMode mode_;
+
+	/**
+	 *  Byte order of the file.
+	 **/
+	protected ByteOrder order_;
+
+	/**
+	 *  Length of the file.
+	 **/
+	protected long length_;
+
+	/**
+	 *  Position at which to stop scanning.
+	 **/
+	protected long end_;
+
+	/**
+	 *  Current mapped window of the file.
+	 **/
+	protected MappedByteBuffer map_;
+
+	/**
+	 *  File offset of the start of map_.
+	 **/
+	protected long start_;
+
+	/**
+	 *  File offset of the current datagram.
+	 **/
+	protected long pos_;
+
+	/**
+	 *  File offset of the next datagram.
+	 **/
+	protected long next_;
+
+	/**
+	 *  Length of the current datagram, as recorded before and after it.
+	 **/
+	protected int len_;
+
+	/**
+	 *  Index in map_ of the current datagram.
+	 **/
+	protected int index_;
+
+	/**
+	 *  Does the file end part way through a datagram?
+	 **/
+	protected boolean truncated_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Scanner for a whole file.
+	 *
+	 *  @param channel Channel of the file to scan.
+	 *  @param order Byte order of the file, see ES60File.getByteOrder().
+	 *  @param write Map the file for writing?
+	 *  @throws IOException if the size of the file cannot be determined.
+	 **/
+	public ES60Scanner(FileChannel channel, ByteOrder order, boolean write) 
+	throws IOException {
+		this(channel, order, write, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 *  Create an ES60Scanner for part of a file.
+	 *
+	 *  @param channel Channel of the file to scan.
+	 *  @param order Byte order of the file, see ES60File.getByteOrder().
+	 *  @param write Map the file for writing?
+	 *  @param start File offset of the first datagram to scan.
+	 *  @param end File offset at which to stop, normally the start of a datagram.
+	 *  @throws IOException if the size of the file cannot be determined.
+	 **/
+	public ES60Scanner(FileChannel channel, ByteOrder order, boolean write, long start, long end) 
+	throws IOException {
+		channel_ = channel;
+		order_ = order;
+		mode_ = write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		length_ = channel.size();
+		end_ = Math.min(end, length_);
+		next_ = start;
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Ensure n bytes from pos_ are in map_ and set index_.
+	 *  @param n Number of bytes required.
+	 *  @throws IOException if the file cannot be mapped.
+	 **/
+	protected void window(int n)
+	throws IOException {
+		if (map_ == null || pos_ < start_ || pos_ + n > start_ + map_.limit()) {
+			long size = Math.max(n, Math.min(ES60MappedInput.WINDOW, length_ - pos_));
+			map_ = channel_.map(mode_, pos_, size);
+			map_.order(order_);
+			start_ = pos_;
+		}
+		index_ = (int)(pos_ - start_);
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Move to the next datagram.
+	 *
+	 *  @return true if there is another complete datagram before the end of the scan,
+	 *          false at the end of the scan or if the file ends part way through a datagram.
+	 *  @throws IOException if a datagram is corrupt or the file cannot be mapped.
+	 **/
+	public boolean next()
+	throws IOException {
+		pos_ = next_;
+		if (pos_ >= end_)
+			return false;
+		if (pos_ + 4 > length_) {
+			truncated_ = true;
+			return false;
+		}
+		window(4);
+		int len = map_.getInt(index_);
+		if (len < ES60Record.HEADER_LENGTH)
+			throw new IOException("Record length is too short:" + len + " at " + pos_);
+		if (pos_ + len + 8 > length_) {
+			truncated_ = true;
+			return false;
+		}
+		window(len + 8);
+		int len2 = map_.getInt(index_ + 4 + len);
+		if (len != len2)
+			throw new IOException("Length mismatch " + len + " != " + len2 + " at " + pos_);
+		len_ = len;
+		next_ = pos_ + len + 8;
+		return true;
+	}
+
+	/**
+	 *  Returns the file offset of the current datagram.
+	 *  After next() returns false this is where scanning stopped.
+	 *  @return File offset.
+	 **/
+	public long getPosition() {
+		return pos_;
+	}
+
+	/**
+	 *  Returns the length of the current datagram, excluding the length fields.
+	 *  @return Length of header and contents.
+	 **/
+	public int getLength() {
+		return len_;
+	}
+
+	/**
+	 *  Returns the length of the contents of the current datagram.
+	 *  @return Length of contents.
+	 **/
+	public int getContentLength() {
+		return len_ - ES60Record.HEADER_LENGTH;
+	}
+
+	/**
+	 *  Returns the type of the current datagram, eg ES60Record.RAW0.
+	 *  The type is always stored big endian.
+	 *  @return Datagram type.
+	 **/
+	public int getType() {
+		int i = index_ + 4;
+		return (map_.get(i) & 0xff) << 24 | (map_.get(i + 1) & 0xff) << 16 |
+			(map_.get(i + 2) & 0xff) << 8 | (map_.get(i + 3) & 0xff);
+	}
+
+	/**
+	 *  Returns the channel of the current datagram, which must be a RAW0 datagram.
+	 *  @return Channel number.
+	 **/
+	public int getChannel() {
+		return map_.getShort(getContentIndex());
+	}
+
+	/**
+	 *  Returns the buffer holding the current datagram.
+	 *  The buffer is in the byte order of the file and is only valid until
+	 *  the next call to next().
+	 *  @return Mapped window of the file.
+	 **/
+	public ByteBuffer getBuffer() {
+		return map_;
+	}
+
+	/**
+	 *  Returns the index in getBuffer() of the contents of the current datagram.
+	 *  @return Index of the contents.
+	 **/
+	public int getContentIndex() {
+		return index_ + 4 + ES60Record.HEADER_LENGTH;
+	}
+
+	/**
+	 *  Did the file end part way through a datagram?
+	 *  Only known after next() has returned false.
+	 *  @return true if the last datagram is incomplete.
+	 **/
+	public boolean isTruncated() {
+		return truncated_;
+	}
+
+	/**
+	 *  Release the mapped window.
+	 **/
+	public void close() {
+		map_ = null;
+	}
+}
+
+/*
+    Search me, O God, and know my heart;
+    test me, and know my thoughts.
+            Psalm 139:23
+*/
@@ -0,0 +1,186 @@
+/*
+    ES60Spliterator.java  au.csiro.marine.echo.data.es60.ES60Spliterator
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+    ES60Spliterator is a Spliterator over the datagrams of an ES60File
+    at a given list of file offsets.
+
+    The offsets come from the index of the file (ES60File.getIndex())
+    for the pings of one channel, or from ES60File.scanOffsets()
+    for every datagram in the file. As every offset is the start of a datagram
+    the file can be split anywhere in the list, so trySplit() simply
+    halves the remaining offsets.
+
+    Each ES60Spliterator reads through its own ES60BufferedInput on the
+    channel of the file, so splits decode independently and can be 
+    processed in parallel, eg:
+<pre>
+    esFile.open(true);
+    ...
+    esFile.stream(1, true).mapToInt(r -> ((ES60RAW)r).getSum(first, last))...
+</pre>
+    An ordered ES60Spliterator reports ORDERED so a stream will keep the 
+    records in file order, an unordered one leaves the stream free to 
+    return them in any order.
+    The ES60File must remain open while the records are read.
+
+    @version $Id$
+**/
+public class ES60Spliterator implements Spliterator<ES60Record> {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Smallest number of datagrams in a split.
+	 **/
+	public static final int MIN_SPLIT = 64;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  The file the datagrams belong to.
+	 **/
+	protected ES60File esFile_;
+
+	/**
+	 *  Channel used to read the file, shared by all splits.
+	 **/
+	protected FileChannel channel_;
+
+	/**
+	 *  File offsets of the datagrams, shared by all splits.
+	 **/
+	protected long[] offsets_;
+
+	/**
+	 *  Index in offsets_ of the next datagram to read.
+	 **/
+	protected int index_;
+
+	/**
+	 *  One past the index in offsets_ of the last datagram to read.
+	 **/
+	protected int fence_;
+
+	/**
+	 *  Report the ORDERED characteristic?
+	 **/
+	protected boolean ordered_;
+
+	/**
+	 *  Input used by this split, created when first needed.
+	 **/
+	protected ES60BufferedInput in_;
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Spliterator over the datagrams at the given offsets.
+	 *
+	 *  @param esFile The file the datagrams belong to.
+	 *  @param channel Channel used to read the file.
+	 *  @param offsets File offsets of the datagrams, in file order.
+	 *  @param ordered Should the records be kept in file order?
+	 **/
+	public ES60Spliterator(ES60File esFile, FileChannel channel, long[] offsets, boolean ordered) {
+		this(esFile, channel, offsets, 0, offsets.length, ordered);
+	}
+
+	/**
+	 *  Create an ES60Spliterator over part of a list of offsets.
+	 *
+	 *  @param esFile The file the datagrams belong to.
+	 *  @param channel Channel used to read the file.
+	 *  @param offsets File offsets of the datagrams, in file order.
+	 *  @param origin Index of the first offset to read.
+	 *  @param fence One past the index of the last offset to read.
+	 *  @param ordered Should the records be kept in file order?
+	 **/
+	protected ES60Spliterator(ES60File esFile, FileChannel channel, long[] offsets,
+			int origin, int fence, boolean ordered) {
+		esFile_ = esFile;
+		channel_ = channel;
+		offsets_ = offsets;
+		index_ = origin;
+		fence_ = fence;
+		ordered_ = ordered;
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Read the datagram at the given position.
+	 *  @param pos File offset of the datagram.
+	 *  @return The datagram read.
+	 *  @throws UncheckedIOException if the datagram cannot be read.
+	 **/
+	protected ES60Record read(long pos) {
+		try {
+			if (in_ == null)
+				in_ = new ES60BufferedInput(channel_, ES60BufferedInput.BUFFER_SIZE, 
+						ES60BufferedInput.BUFFER_SIZE);
+			in_.seek(pos);
+			ES60Record record = ES60Record.read(in_, esFile_, false);
+			esFile_.loaded(record, false);
+			return record;
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/* ----- Interface Spliterator ----- */
+
+	public boolean tryAdvance(Consumer<? super ES60Record> action) {
+		if (index_ >= fence_)
+			return false;
+		action.accept(read(offsets_[index_++]));
+		return true;
+	}
+
+	public void forEachRemaining(Consumer<? super ES60Record> action) {
+		while (index_ < fence_)
+			action.accept(read(offsets_[index_++]));
+	}
+
+	public Spliterator<ES60Record> trySplit() {
+		if (fence_ - index_ < 2 * MIN_SPLIT)
+			return null;
+		int mid = (index_ + fence_) >>> 1;
+		ES60Spliterator prefix = 
+			new ES60Spliterator(esFile_, channel_, offsets_, index_, mid, ordered_);
+		index_ = mid;
+		return prefix;
+	}
+
+	public long estimateSize() {
+		return fence_ - index_;
+	}
+
+	public int characteristics() {
+		return SIZED | SUBSIZED | NONNULL | IMMUTABLE | (ordered_ ? ORDERED : 0);
+	}
+}
+
+/*
+    Two are better off than one,
+    because together they can work more effectively.
+            Ecclesiastes 4:9
+*/
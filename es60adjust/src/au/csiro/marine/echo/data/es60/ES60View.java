@@ -0,0 +1,590 @@
+/*
+    ES60View.java  au.csiro.marine.echo.data.es60.ES60View
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+    ES60View is a reusable view of a datagram held in a shared buffer.
+
+    ES60Record.read() creates a header, a Date, a record and a data array
+    for every datagram, which is a lot of garbage when all that is wanted
+    is to look at a few fields of each ping.
+    ES60File.readView() instead reads each datagram into a buffer owned by
+    the ES60File and returns one of a small set of views over that buffer.
+    The views and the buffer are reused for every datagram, so a view is
+    only valid until the next call to readView().
+
+    The typed accessors read directly from the buffer at the same offsets
+    that ES60RAW.parse(), ES60CON.parse() etc use.
+    Offsets given to the generic accessors are relative to the start of the
+    datagram content, ie after the 12 byte datagram header.
+
+    Use toRecord() to materialise an ES60Record if a datagram needs to be
+    kept beyond the next read.
+
+    @version $Id$
+    @see ES60File#readView()
+**/
+public class ES60View {
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  Buffer holding the datagram, in the byte order of the file.
+	 **/
+	protected ByteBuffer buffer_;
+
+	/**
+	 *  Index in buffer_ of the datagram header (the byte after the length).
+	 **/
+	protected int offset_;
+
+	/**
+	 *  Length of the datagram, header plus content, as given by the length field.
+	 **/
+	protected int length_;
+
+	/**
+	 *  Position in file that this datagram starts, if known.
+	 **/
+	protected long filePointer_;
+
+	/**
+	 *  ES60File that this datagram was read from.
+	 **/
+	protected ES60File esFile_;
+
+	/* ---------- Constructors ---------- */
+
+	protected ES60View() {
+	}
+
+	/* ---------- Protected Methods ---------- */
+
+	/**
+	 *  Point this view at a datagram.
+	 *
+	 *  @param buffer Buffer containing the datagram, in the byte order of the file.
+	 *  @param offset Index in buffer of the datagram header.
+	 *  @param length Datagram length.
+	 *  @param filePointer Position of the datagram in the file.
+	 *  @param esFile File the datagram was read from.
+	 **/
+	protected void wrap(ByteBuffer buffer, int offset, int length, long filePointer, ES60File esFile) {
+		buffer_ = buffer;
+		offset_ = offset;
+		length_ = length;
+		filePointer_ = filePointer;
+		esFile_ = esFile;
+	}
+
+	/**
+	 *  Copy the content of this datagram to a new array.
+	 **/
+	protected byte[] copyContent() {
+		byte[] data = new byte[getContentLength()];
+		ByteBuffer content = buffer_.duplicate();
+		content.position(offset_ + ES60Record.HEADER_LENGTH);
+		content.get(data);
+		return data;
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  @return The telegram type of this datagram.
+	 *  @see ES60Record#RAW0
+	 **/
+	public int getType() {
+		/* type is stored big endian regardless of platform, see ES60Header */
+		int type = buffer_.getInt(offset_);
+		if (buffer_.order() == ByteOrder.LITTLE_ENDIAN)
+			type = Integer.reverseBytes(type);
+		return type;
+	}
+
+	/**
+	 *  Get the telegram timestamp in ES60 format,
+	 *  the number of 100 nanosecond intervals since 1601-01-01.
+	 *  @return Timestamp of the datagram.
+	 **/
+	public long getESTime() {
+		long datel = buffer_.getInt(offset_ + 4) & 0xffffffffL;
+		long dateh = buffer_.getInt(offset_ + 8) & 0xffffffffL;
+		return dateh << 32 | datel;
+	}
+
+	/**
+	 *  Get the timestamp of this datagram as a java time (milliseconds since 1970).
+	 *  @return Timestamp of the datagram.
+	 **/
+	public long getTimeMillis() {
+		return getESTime() / 10000 + ES60Header.DATE_ORIGIN;
+	}
+
+	/**
+	 *  @return Datagram length, header plus content.
+	 **/
+	public int getLength() {
+		return length_;
+	}
+
+	/**
+	 *  @return Number of bytes of content following the datagram header.
+	 **/
+	public int getContentLength() {
+		return length_ - ES60Record.HEADER_LENGTH;
+	}
+
+	/**
+	 *  @return Position in the file that this datagram starts.
+	 **/
+	public long getFilePointer() {
+		return filePointer_;
+	}
+
+	/**
+	 *  @return ES60File this datagram was read from.
+	 **/
+	public ES60File getFile() {
+		return esFile_;
+	}
+
+	/**
+	 *  @return Byte order of the datagram.
+	 **/
+	public ByteOrder getByteOrder() {
+		return buffer_.order();
+	}
+
+	/**
+	 *  @param i Offset from start of content.
+	 *  @return The byte at offset i.
+	 **/
+	public byte getByte(int i) {
+		return buffer_.get(offset_ + ES60Record.HEADER_LENGTH + i);
+	}
+
+	/**
+	 *  @param i Offset from start of content.
+	 *  @return The 2 byte int (short in the simrad manuals) at offset i.
+	 **/
+	public short getShort(int i) {
+		return buffer_.getShort(offset_ + ES60Record.HEADER_LENGTH + i);
+	}
+
+	/**
+	 *  @param i Offset from start of content.
+	 *  @return The 4 byte int (long in the simrad manuals) at offset i.
+	 **/
+	public int getInt(int i) {
+		return buffer_.getInt(offset_ + ES60Record.HEADER_LENGTH + i);
+	}
+
+	/**
+	 *  @param i Offset from start of content.
+	 *  @return The 4 byte float at offset i.
+	 **/
+	public float getFloat(int i) {
+		return buffer_.getFloat(offset_ + ES60Record.HEADER_LENGTH + i);
+	}
+
+	/**
+	 *  Create an ES60Record containing a copy of this datagram.
+	 *  The record is independent of the buffer so remains valid after
+	 *  the next datagram is read.
+	 *
+	 *  @return A new ES60Record (or subclass) containing this datagram.
+	 **/
+	public ES60Record toRecord() {
+		ES60Record retval;
+		switch (getType()) {
+		case ES60Record.CON0:
+			retval = new ES60CON();
+			break;
+		case ES60Record.NME0:
+			retval = new ES60NMEA();
+			break;
+		case ES60Record.RAW0:
+			retval = new ES60RAW();
+			break;
+		default:
+			retval = new ES60Record();
+		}
+		retval.swap_ = buffer_.order() == ByteOrder.LITTLE_ENDIAN;
+		retval.data_ = copyContent();
+		retval.header_ = new ES60Header(getType(), getESTime());
+		retval.esFile_ = esFile_;
+		retval.filePointer_ = filePointer_;
+		return retval;
+	}
+
+	/**
+	 *  @return Timestamp and type of this datagram, as for ES60Header.toString().
+	 **/
+	public String toString() {
+		return new ES60Header(getType(), getESTime()).toString();
+	}
+
+	/* ---------- Inner Classes ---------- */
+
+	/* ----- Class RAW ----- */
+
+	/**
+	 *  ES60View.RAW is a view of a RAW0 datagram.
+	 *  @see ES60RAW
+	 **/
+	public static class RAW extends ES60View {
+
+		/**
+		 *  @return Channel number.
+		 **/
+		public int getChannel() {
+			return getShort(0);
+		}
+
+		/**
+		 *  @return Datatype.
+		 **/
+		public int getMode() {
+			return getShort(2);
+		}
+
+		public float getTransducerDepth() {
+			return getFloat(4);
+		}
+
+		public float getFrequency() {
+			return getFloat(8);
+		}
+
+		public float getTransmitPower() {
+			return getFloat(12);
+		}
+
+		public float getPulseLength() {
+			return getFloat(16);
+		}
+
+		public float getBandWidth() {
+			return getFloat(20);
+		}
+
+		public float getSampleInterval() {
+			return getFloat(24);
+		}
+
+		public float getSoundVelocity() {
+			return getFloat(28);
+		}
+
+		public float getAbsorptionCoefficient() {
+			return getFloat(32);
+		}
+
+		public float getHeave() {
+			return getFloat(36);
+		}
+
+		public float getRoll() {
+			return getFloat(40);
+		}
+
+		public float getPitch() {
+			return getFloat(44);
+		}
+
+		public float getTemperature() {
+			return getFloat(48);
+		}
+
+		public int getTrawlUpperDepthValid() {
+			return getShort(52);
+		}
+
+		public int getTrawlOpeningValid() {
+			return getShort(54);
+		}
+
+		public float getTrawlUpperDepth() {
+			return getFloat(56);
+		}
+
+		public float getTrawlOpening() {
+			return getFloat(60);
+		}
+
+		/**
+		 *  @return First sample number.
+		 **/
+		public int getOffset() {
+			return getInt(64);
+		}
+
+		/**
+		 *  @return Number of samples.
+		 **/
+		public int getCount() {
+			return getInt(68);
+		}
+
+		/**
+		 *  @return Does this ping have angle data?
+		 **/
+		public boolean hasAngles() {
+			return getContentLength() == ES60RAW.HEADER + 4 * getCount();
+		}
+
+		/**
+		 *  @param i Sample number.
+		 *  @return Power of sample i.
+		 **/
+		public int getPower(int i) {
+			return getShort(ES60RAW.HEADER + 2 * i);
+		}
+
+		/**
+		 *  Copy the power of all samples into power, which must be at least getCount() long.
+		 *  @param power Array to fill with sample power.
+		 *  @return power.
+		 **/
+		public int[] getPower(int[] power) {
+			int count = getCount();
+			int start = offset_ + ES60Record.HEADER_LENGTH + ES60RAW.HEADER;
+			for (int i = 0; i < count; i++)
+				power[i] = buffer_.getShort(start + 2 * i);
+			return power;
+		}
+
+		/**
+		 *  @param i Sample number.
+		 *  @return Alongship electrical angle of sample i.
+		 **/
+		public byte getAlongship(int i) {
+			return (byte)(getShort(ES60RAW.HEADER + 2 * (getCount() + i)) >> 8);
+		}
+
+		/**
+		 *  @param i Sample number.
+		 *  @return Athwartship electrical angle of sample i.
+		 **/
+		public byte getAthwartship(int i) {
+			return (byte)getShort(ES60RAW.HEADER + 2 * (getCount() + i));
+		}
+
+		/**
+		 *  Integrates the power values for the specified range of samples.
+		 *  @param first First sample number to include.
+		 *  @param last Last sample number to include, must be >= first.
+		 *  @return Sum of the sample power values.
+		 *  @throws ArrayIndexOutOfBoundsException if last >= number of available samples.
+		 *  @see ES60RAW#getSum(int, int)
+		 **/
+		public int getSum(int first, int last) {
+			if (getCount() < last || getContentLength() < ES60RAW.HEADER + 2 * last + 2)
+				throw new ArrayIndexOutOfBoundsException("ES60RAW insufficient data in record");
+			int start = offset_ + ES60Record.HEADER_LENGTH + ES60RAW.HEADER;
+			int retval = 0;
+			for (int i = first; i <= last; i++)
+				retval += buffer_.getShort(start + 2 * i);
+			return retval;
+		}
+	}
+
+	/* ----- Class NMEA ----- */
+
+	/**
+	 *  ES60View.NMEA is a view of a NME0 datagram.
+	 *  @see ES60NMEA
+	 **/
+	public static class NMEA extends ES60View {
+
+		/**
+		 *  Returns the 3 character sentence identifier (eg GLL, GGA, etc)
+		 *  as an int, as for ES60NMEA.getSentence().
+		 *  @return sentence identifier or 0 if there isn't one.
+		 **/
+		public int getSentence() {
+			int len = getContentLength();
+			int comma = 0;
+			while (comma < len && getByte(comma) != ',')
+				comma++;
+			if (comma <= 5)
+				return 0;
+			return (getByte(3) & 0xff) << 16 | (getByte(4) & 0xff) << 8 | (getByte(5) & 0xff);
+		}
+
+		/**
+		 *  Returns true if the sentence includes latitude and longitude,
+		 *  as for ES60NMEA.hasPos(), without materialising the record.
+		 *  @return Whether the sentence has a position.
+		 **/
+		public boolean hasPos() {
+			int lat;
+			switch (getSentence()) {
+			case ES60NMEA.GGA:
+				lat = 2;
+				break;
+			case ES60NMEA.GLL:
+				lat = 1;
+				break;
+			case ES60NMEA.RMC:
+				lat = 3;
+				break;
+			default:
+				return false;
+			}
+			/* GGA and RMC lead with a time that must parse too */
+			return (lat == 1 || isNumber(1)) &&
+				isNumber(lat) && hasField(lat + 1) &&
+				isNumber(lat + 2) && hasField(lat + 3);
+		}
+
+		/**
+		 *  @return Content offset of comma separated field n, or -1.
+		 **/
+		protected int field(int n) {
+			int len = getContentLength();
+			int i = 0;
+			for (; n > 0; n--) {
+				while (i < len && getByte(i) != ',')
+					i++;
+				if (i == len)
+					return -1;
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 *  Returns true if field n would be kept by String.split(),
+		 *  which drops trailing empty fields.
+		 **/
+		protected boolean hasField(int n) {
+			int start = field(n);
+			if (start < 0)
+				return false;
+			int len = getContentLength();
+			for (int i = start; i < len; i++)
+				if (getByte(i) != ',')
+					return true;
+			return false;
+		}
+
+		/**
+		 *  @return Whether field n parses as a double.
+		 **/
+		protected boolean isNumber(int n) {
+			if (!hasField(n))
+				return false;
+			int start = field(n);
+			int end = start;
+			int len = getContentLength();
+			while (end < len && getByte(end) != ',')
+				end++;
+			byte[] b = new byte[end - start];
+			for (int i = 0; i < b.length; i++)
+				b[i] = getByte(start + i);
+			try {
+				Double.parseDouble(new String(b));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		/**
+		 *  @return the NMEA string.
+		 **/
+		public String getNMEA() {
+			return new String(copyContent());
+		}
+	}
+
+	/* ----- Class CON ----- */
+
+	/**
+	 *  ES60View.CON is a view of a CON0 datagram.
+	 *  Channel numbers start at 1, as for ES60CON.
+	 *  @see ES60CON
+	 **/
+	public static class CON extends ES60View {
+
+		/**
+		 *  Decode a zero terminated string.
+		 **/
+		protected String getString(int start, int len) {
+			byte[] b = new byte[len];
+			int end;
+			for (end = 0; end < len; end++) {
+				b[end] = getByte(start + end);
+				if (b[end] == 0)
+					break;
+			}
+			return new String(b, 0, end);
+		}
+
+		public String getSurveyName() {
+			return getString(0, 128);
+		}
+
+		public String getTransectName() {
+			return getString(128, 128);
+		}
+
+		public String getSounderName() {
+			return getString(256, 128);
+		}
+
+		/**
+		 *  @return Number of transducers (channels).
+		 **/
+		public int getTransducerCount() {
+			return getInt(512);
+		}
+
+		/**
+		 *  Offset of the transducer structure for a channel.
+		 **/
+		protected int transducer(int channel) {
+			return ES60CON.HEADER + (channel - 1) * ES60CON.CONFIG;
+		}
+
+		public int getBeamType(int channel) {
+			return getInt(transducer(channel) + 128);
+		}
+
+		public float getFrequency(int channel) {
+			return getFloat(transducer(channel) + 132);
+		}
+
+		public float getEquivalentBeamAngle(int channel) {
+			return getFloat(transducer(channel) + 140);
+		}
+
+		public float getBeamWidthAlongship(int channel) {
+			return getFloat(transducer(channel) + 144);
+		}
+
+		public float getBeamWidthAthwartship(int channel) {
+			return getFloat(transducer(channel) + 148);
+		}
+	}
+}
+
+/*
+    Whoever is faithful in small matters
+    will be faithful in large ones.
+            Luke 16:10a
+*/
@@ -0,0 +1,225 @@
+/*
+    ES60Writer.java  au.csiro.marine.echo.data.es60.ES60Writer
+
+    Copyright 2026, CSIRO Marine and Atmospheric Research.
+    All rights reserved.
+    Released under the GPL and possibly other licenses.
+
+    $Id$
+
+*/
+
+package au.csiro.marine.echo.data.es60;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+    ES60Writer writes ES60Records to a channel in batches.
+
+    ES60Record.write(DataOutput) makes separate writes for the length,
+    each of the three header fields, the contents and the trailing length,
+    which on an unbuffered FileOutputStream is six system calls per datagram.
+    ES60Writer builds the length and header of each datagram in a small 
+    buffer, and writes the leading buffer, the contents and the trailing 
+    length of a batch of datagrams with one gathering write.
+
+    The contents of a record are written from the record itself, not copied,
+    so a record must not be changed after it is passed to write() until
+    the writer has been flushed.
+    The CRC32 of everything written is kept as it is written, see getCRC().
+
+    @version $Id$
+**/
+public class ES60Writer {
+
+	/* ---------- Constants ---------- */
+
+	/**
+	 *  Maximum number of datagrams in a batch.
+	 **/
+	public static final int BATCH_RECORDS = 256;
+
+	/**
+	 *  Number of bytes of datagrams after which a batch is written.
+	 **/
+	public static final int BATCH_BYTES = 1 << 20;
+
+	/* ---------- Protected Members ---------- */
+
+	/**
+	 *  Where datagrams are written.
+	 **/
+	protected WritableByteChannel channel_;
+
+	/**
+	 *  Buffers for the batch, three per datagram: length and header, contents, trailing length.
+	 **/
+	protected ByteBuffer[] buffers_;
+
+	/**
+	 *  Reusable length and header buffers, one per datagram in a batch.
+	 **/
+	protected ByteBuffer[] heads_;
+
+	/**
+	 *  Reusable trailing length buffers, one per datagram in a batch.
+	 **/
+	protected ByteBuffer[] tails_;
+
+	/**
+	 *  Number of datagrams in the current batch.
+	 **/
+	protected int count_;
+
+	/**
+	 *  Number of bytes in the current batch.
+	 **/
+	protected long pending_;
+
+	/**
+	 *  Number of bytes written, including the current batch.
+	 **/
+	protected long position_;
+
+	/**
+	 *  CRC32 of the bytes written, including the current batch.
+	 **/
+	protected CRC32 crc_ = new CRC32();
+
+	/* ---------- Constructors ---------- */
+
+	/**
+	 *  Create an ES60Writer writing to a new file.
+	 *  The file is closed by close().
+	 *
+	 *  @param file File to create.
+	 *  @throws IOException if the file cannot be created.
+	 **/
+	public ES60Writer(File file)
+	throws IOException {
+		this(new FileOutputStream(file).getChannel());
+	}
+
+	/**
+	 *  Create an ES60Writer writing to a channel.
+	 *  The channel is closed by close().
+	 *
+	 *  @param channel Channel to write to.
+	 **/
+	public ES60Writer(WritableByteChannel channel) {
+		channel_ = channel;
+		buffers_ = new ByteBuffer[3 * BATCH_RECORDS];
+		heads_ = new ByteBuffer[BATCH_RECORDS];
+		tails_ = new ByteBuffer[BATCH_RECORDS];
+		for (int i = 0; i < BATCH_RECORDS; i++) {
+			heads_[i] = ByteBuffer.allocate(4 + ES60Record.HEADER_LENGTH);
+			tails_[i] = ByteBuffer.allocate(4);
+		}
+	}
+
+	/* ---------- Public Methods ---------- */
+
+	/**
+	 *  Add a record to the current batch, writing the batch if it is full.
+	 *
+	 *  @param record Record to write.
+	 *  @param swap Swap bytes when writing (write in little endian)?
+	 *  @throws IOException if the batch cannot be written.
+	 **/
+	public void write(ES60Record record, boolean swap)
+	throws IOException {
+		byte[] data = record.content();
+		int len = ES60Record.HEADER_LENGTH + data.length;
+		int slen = swap ? ES60Record.swap(len) : len;
+
+		ByteBuffer head = heads_[count_];
+		head.clear();
+		head.putInt(slen);
+		record.header_.write(head, swap);
+		head.flip();
+
+		ByteBuffer tail = tails_[count_];
+		tail.clear();
+		tail.putInt(slen);
+		tail.flip();
+
+		buffers_[3 * count_] = head;
+		buffers_[3 * count_ + 1] = ByteBuffer.wrap(data);
+		buffers_[3 * count_ + 2] = tail;
+		crc_.update(head.array(), 0, head.limit());
+		crc_.update(data);
+		crc_.update(tail.array(), 0, tail.limit());
+		count_++;
+		pending_ += len + 8;
+		position_ += len + 8;
+
+		if (count_ == BATCH_RECORDS || pending_ >= BATCH_BYTES)
+			flush();
+	}
+
+	/**
+	 *  Write the current batch.
+	 *  @throws IOException if the batch cannot be written.
+	 **/
+	public void flush()
+	throws IOException {
+		int n = 3 * count_;
+		if (channel_ instanceof GatheringByteChannel) {
+			GatheringByteChannel gather = (GatheringByteChannel)channel_;
+			int first = 0;
+			while (first < n) {
+				gather.write(buffers_, first, n - first);
+				while (first < n && !buffers_[first].hasRemaining())
+					first++;
+			}
+		} else
+			for (int i = 0; i < n; i++)
+				while (buffers_[i].hasRemaining())
+					channel_.write(buffers_[i]);
+
+		for (int i = 0; i < n; i++)
+			buffers_[i] = null;
+		count_ = 0;
+		pending_ = 0;
+	}
+
+	/**
+	 *  Returns the number of bytes written, including any not yet flushed.
+	 *  @return Position in the output.
+	 **/
+	public long getPosition() {
+		return position_;
+	}
+
+	/**
+	 *  Returns the CRC32 of the bytes written, including any not yet flushed.
+	 *  @return CRC32 of the output, as ES60Journal records it.
+	 **/
+	public long getCRC() {
+		return crc_.getValue();
+	}
+
+	/**
+	 *  Write the current batch and close the channel.
+	 *  @throws IOException if the batch cannot be written or the channel closed.
+	 **/
+	public void close()
+	throws IOException {
+		try {
+			flush();
+		} finally {
+			channel_.close();
+		}
+	}
+}
+
+/*
+    Whatever your hand finds to do, do it with all your might.
+            Ecclesiastes 9:10
+*/